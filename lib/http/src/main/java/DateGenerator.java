@@ -23,6 +23,9 @@ import ab.squirrel.util.thread.ThreadIdPool;
 
 /**
  * ThreadLocal Date formatters for HTTP style dates.
+ * <p>The formatted dates are cached by epoch second, so that the dates that are
+ * formatted over and over, such as the {@code Last-Modified} date of static content,
+ * are only formatted once.</p>
  */
 public class DateGenerator
 {
@@ -40,6 +43,13 @@ public class DateGenerator
 
     private static final ThreadIdPool<DateGenerator> __dateGenerator = new ThreadIdPool<>();
 
+    // Direct mapped caches, indexed by epoch second, of immutable entries that
+    // are published without locks: a racing thread at worst formats a date twice.
+    private static final int CACHE_SIZE = 64;
+    private static final CachedDate[] __dates = new CachedDate[CACHE_SIZE];
+    private static final CachedField[] __lastModifiedFields = new CachedField[CACHE_SIZE];
+    private static final CachedField[] __expiresFields = new CachedField[CACHE_SIZE];
+
     public static final String __01Jan1970 = DateGenerator.formatDate(0);
 
     /**
@@ -50,7 +60,14 @@ public class DateGenerator
      */
     public static String formatDate(long date)
     {
-        return __dateGenerator.apply(DateGenerator::new, DateGenerator::doFormatDate, date);
+        long seconds = Math.floorDiv(date, 1000);
+        int slot = slot(seconds);
+        CachedDate cached = __dates[slot];
+        if (cached != null && cached.seconds == seconds)
+            return cached.value;
+        String value = __dateGenerator.apply(DateGenerator::new, DateGenerator::doFormatDate, date);
+        __dates[slot] = new CachedDate(seconds, value);
+        return value;
     }
 
     /**
@@ -64,6 +81,49 @@ public class DateGenerator
         return formatDate(instant.toEpochMilli());
     }
 
+    /**
+     * <p>Returns a field with the given header and the given date formatted as an HTTP date.</p>
+     * <p>{@code Last-Modified} and {@code Expires} fields are pre-encoded and cached,
+     * so that the same field is returned for the dates within the same second.</p>
+     *
+     * @param header the header of the field
+     * @param date the date in milliseconds
+     * @return the date field
+     */
+    public static HttpField formatDateField(HttpHeader header, long date)
+    {
+        CachedField[] cache = switch (header)
+        {
+            case LAST_MODIFIED -> __lastModifiedFields;
+            case EXPIRES -> __expiresFields;
+            default -> null;
+        };
+        if (cache == null)
+            return new HttpField(header, formatDate(date));
+
+        long seconds = Math.floorDiv(date, 1000);
+        int slot = slot(seconds);
+        CachedField cached = cache[slot];
+        if (cached != null && cached.seconds == seconds)
+            return cached.field;
+        HttpField field = new PreEncodedHttpField(header, formatDate(date));
+        cache[slot] = new CachedField(seconds, field);
+        return field;
+    }
+
+    private static int slot(long seconds)
+    {
+        return (int)seconds & (CACHE_SIZE - 1);
+    }
+
+    private record CachedDate(long seconds, String value)
+    {
+    }
+
+    private record CachedField(long seconds, HttpField field)
+    {
+    }
+
     private final StringBuilder buf = new StringBuilder(32);
     private final GregorianCalendar gc = new GregorianCalendar(__GMT);
 
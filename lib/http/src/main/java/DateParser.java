@@ -55,6 +55,9 @@ public class DateParser
     @Deprecated(since = "12.0.9", forRemoval = true)
     public static long parseDate(String date)
     {
+        long epoch = HttpDateTime.parseImfFixdate(date);
+        if (epoch != -1)
+            return epoch;
         return DATE_PARSER.apply(DateParser::new, DateParser::parse, date);
     }
 
@@ -87,7 +87,7 @@ public class HttpContent
     public HttpField getLastModified()
     {
         Instant lm = _resource.lastModified();
-        return new HttpField(HttpHeader.LAST_MODIFIED, DateGenerator.formatDate(lm));
+        return DateGenerator.formatDateField(HttpHeader.LAST_MODIFIED, lm.toEpochMilli());
     }
 
     public String getLastModifiedValue()
@@ -43,6 +43,11 @@ import static java.time.ZoneOffset.UTC;
  *     <li>{@code Sunday, 06-Nov-94 08:49:37 GMT} - RFC 850 (obsolete)</li>
  *     <li>{@code Sun Nov  6 08:49:37 1994} - ANSI C's {@code asctime()} format (obsolete)</li>
  * </ul>
+ *
+ * <p>The preferred format, which is what browsers send in conditional request headers,
+ * is parsed to an epoch by {@link #parseToEpoch(String)} without allocation.
+ * The other formats are parsed with the lenient algorithm of {@link #parse(String)}, and
+ * their results are cached, since clients send the same value over and over.</p>
  */
 public class HttpDateTime
 {
@@ -63,6 +68,13 @@ public class HttpDateTime
         .with("Nov", Calendar.NOVEMBER + 1)
         .with("Dec", Calendar.DECEMBER + 1)
         .build();
+    private static final String[] DAYS = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    private static final int[] MONTH_DAYS = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+    private static final int IMF_FIXDATE_LENGTH = "Sun, 06 Nov 1994 08:49:37 GMT".length();
+    // Direct mapped cache, indexed by hash code, of immutable entries that are published without locks.
+    private static final int CACHE_SIZE = 32;
+    private static final ParsedEpoch[] CACHE = new ParsedEpoch[CACHE_SIZE];
     /**
      * Delimiters for parsing as found in <a href="https://datatracker.ietf.org/doc/html/rfc6265#section-5.1.1">RFC6265: Date/Time Delimiters</a>
      */
@@ -87,17 +99,103 @@ public class HttpDateTime
      */
     public static long parseToEpoch(String datetime)
     {
+        Objects.requireNonNull(datetime, "Date/Time string cannot be null");
+
+        long epoch = parseImfFixdate(datetime);
+        if (epoch != -1)
+            return epoch;
+
+        int slot = datetime.hashCode() & (CACHE_SIZE - 1);
+        ParsedEpoch cached = CACHE[slot];
+        if (cached != null && cached.datetime.equals(datetime))
+            return cached.epoch;
+
         try
         {
             ZonedDateTime dateTime = parse(datetime);
-            return TimeUnit.SECONDS.toMillis(dateTime.toEpochSecond());
+            epoch = TimeUnit.SECONDS.toMillis(dateTime.toEpochSecond());
         }
         catch (IllegalArgumentException e)
         {
             if (LOG.isDebugEnabled())
                 LOG.debug("Unable to parse Date/Time: {}", datetime, e);
+            epoch = -1;
+        }
+        CACHE[slot] = new ParsedEpoch(datetime, epoch);
+        return epoch;
+    }
+
+    /**
+     * <p>Parses a Date/Time in the preferred IMF-fixdate format, for example
+     * {@code Sun, 06 Nov 1994 08:49:37 GMT}, without allocation.</p>
+     * <p>Only the exact format is recognized, with the case of the names as specified,
+     * and the day name is not checked against the date, like {@link #parse(String)} does.
+     * Any other input, including the valid dates in the obsolete formats, returns -1,
+     * so that the caller can fall back to {@link #parse(String)}.</p>
+     *
+     * @param datetime the Date/Time to parse
+     * @return unix epoch in milliseconds, or -1 if the input is not an IMF-fixdate
+     */
+    public static long parseImfFixdate(CharSequence datetime)
+    {
+        if (datetime.length() != IMF_FIXDATE_LENGTH ||
+            datetime.charAt(3) != ',' || datetime.charAt(4) != ' ' ||
+            datetime.charAt(7) != ' ' || datetime.charAt(11) != ' ' || datetime.charAt(16) != ' ' ||
+            datetime.charAt(19) != ':' || datetime.charAt(22) != ':' || datetime.charAt(25) != ' ' ||
+            datetime.charAt(26) != 'G' || datetime.charAt(27) != 'M' || datetime.charAt(28) != 'T')
+            return -1;
+
+        if (indexOf(DAYS, datetime, 0) < 0)
+            return -1;
+        int month = indexOf(MONTHS, datetime, 8) + 1;
+        int day = digits(datetime, 5, 2);
+        int year = digits(datetime, 12, 4);
+        int hour = digits(datetime, 17, 2);
+        int minute = digits(datetime, 20, 2);
+        int second = digits(datetime, 23, 2);
+
+        // Out of range values are left to parse(String), which rejects them.
+        if (month < 1 || year < 1601 || day < 1 || day > MONTH_DAYS[month - 1] || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
             return -1;
+        boolean leap = (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+        if (month == 2 && day == 29 && !leap)
+            return -1;
+
+        // Days from the civil date, see http://howardhinnant.github.io/date_algorithms.html#days_from_civil
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+
+        return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+    }
+
+    private static int indexOf(String[] names, CharSequence datetime, int offset)
+    {
+        for (int i = 0; i < names.length; i++)
+        {
+            String name = names[i];
+            if (datetime.charAt(offset) == name.charAt(0) &&
+                datetime.charAt(offset + 1) == name.charAt(1) &&
+                datetime.charAt(offset + 2) == name.charAt(2))
+                return i;
         }
+        return -1;
+    }
+
+    private static int digits(CharSequence datetime, int offset, int length)
+    {
+        int value = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            int digit = datetime.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            value = value * 10 + digit;
+        }
+        return value;
     }
 
     /**
@@ -245,4 +343,8 @@ public class HttpDateTime
             .withZone(UTC)
             .format(datetime);
     }
+
+    private record ParsedEpoch(String datetime, long epoch)
+    {
+    }
 }
@@ -585,26 +585,37 @@ public class HttpField
         return _name.equalsIgnoreCase(name);
     }
 
-    private int nameHashCode()
+    int nameHashCode()
     {
         int h = this._hash;
-        int len = _name.length();
-        if (h == 0 && len > 0)
+        if (h == 0 && !_name.isEmpty())
         {
-            for (int i = 0; i < len; i++)
-            {
-                // simple case insensitive hash
-                char c = _name.charAt(i);
-                // assuming us-ascii (per last paragraph on http://tools.ietf.org/html/rfc7230#section-3.2.4)
-                if ((c >= 'a' && c <= 'z'))
-                    c -= 0x20;
-                h = 31 * h + c;
-            }
+            h = nameHashCode(_name);
             this._hash = h;
         }
         return h;
     }
 
+    /**
+     * @param name a field name
+     * @return a case insensitive hash of the field name
+     */
+    static int nameHashCode(String name)
+    {
+        int h = 0;
+        int len = name.length();
+        for (int i = 0; i < len; i++)
+        {
+            // simple case insensitive hash
+            char c = name.charAt(i);
+            // assuming us-ascii (per last paragraph on http://tools.ietf.org/html/rfc7230#section-3.2.4)
+            if ((c >= 'a' && c <= 'z'))
+                c -= 0x20;
+            h = 31 * h + c;
+        }
+        return h;
+    }
+
     @Override
     public String toString()
     {
@@ -530,6 +530,9 @@ public interface HttpFields extends Iterable<HttpField>, Supplier<HttpFields>
         if (val == null)
             return -1;
 
+        long epoch = HttpDateTime.parseImfFixdate(val);
+        if (epoch != -1)
+            return epoch;
         return TimeUnit.SECONDS.toMillis(HttpDateTime.parse(val).toEpochSecond());
     }
 
@@ -1302,7 +1305,7 @@ public interface HttpFields extends Iterable<HttpField>, Supplier<HttpFields>
          * <p>Puts a new date {@link HttpField} with the given name and {@code date} value,
          * with the semantic of {@link #put(HttpField)}.</p>
          * The {@code date} parameter is the number of milliseconds from the Unix Epoch,
-         * and it is formatted into a string via {@link DateGenerator#formatDate(long)}.
+         * and it is formatted into a field via {@link DateGenerator#formatDateField(HttpHeader, long)}.
          *
          * @param name the non-{@code null} name of the field
          * @param date the field date value
@@ -1311,7 +1314,7 @@ public interface HttpFields extends Iterable<HttpField>, Supplier<HttpFields>
         default Mutable putDate(HttpHeader name, long date)
         {
             Objects.requireNonNull(name);
-            return put(name, DateGenerator.formatDate(date));
+            return put(DateGenerator.formatDateField(name, date));
         }
 
         /**
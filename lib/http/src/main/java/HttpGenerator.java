@@ -201,7 +201,7 @@ public class HttpGenerator
                     if (info.getHttpVersion() == HttpVersion.HTTP_0_9)
                         throw new HttpException.RuntimeException(INTERNAL_SERVER_ERROR_500, "HTTP/0.9 not supported");
 
-                    generateHeaders(header, content, last);
+                    generateHeaders(header, content, last, null);
 
                     boolean expect100 = info.getHttpFields().contains(HttpHeader.EXPECT, HttpHeaderValue.CONTINUE.asString());
 
@@ -369,8 +369,12 @@ public class HttpGenerator
                 int pos = BufferUtil.flipToFill(header);
                 try
                 {
-                    // generate ResponseLine
-                    generateResponseLine(info, header);
+                    // generate ResponseLine, or the ResponseLine and the fields of a template
+                    ResponseTemplate template = ResponseTemplate.from(info);
+                    if (template == null)
+                        generateResponseLine(info, header);
+                    else
+                        template.putTo(header);
 
                     // Handle 1xx and no content responses
                     int status = info.getStatus();
@@ -382,7 +386,7 @@ public class HttpGenerator
                             case HttpStatus.SWITCHING_PROTOCOLS_101:
                                 break;
                             case HttpStatus.EARLY_HINTS_103:
-                                generateHeaders(header, content, last);
+                                generateHeaders(header, content, last, null);
                                 _state = State.COMPLETING_1XX;
                                 return Result.FLUSH;
                             default:
@@ -396,7 +400,7 @@ public class HttpGenerator
                         _noContentResponse = true;
                     }
 
-                    generateHeaders(header, content, last);
+                    generateHeaders(header, content, last, template);
 
                     // handle the content.
                     int len = BufferUtil.length(content);
@@ -562,7 +566,7 @@ public class HttpGenerator
         return bytes;
     }
 
-    private void generateHeaders(ByteBuffer header, ByteBuffer content, boolean last)
+    private void generateHeaders(ByteBuffer header, ByteBuffer content, boolean last, ResponseTemplate template)
     {
         final MetaData.Request request = (_info instanceof MetaData.Request) ? (MetaData.Request)_info : null;
         final MetaData.Response response = (_info instanceof MetaData.Response) ? (MetaData.Response)_info : null;
@@ -578,7 +582,7 @@ public class HttpGenerator
         boolean http11 = _info.getHttpVersion() == HttpVersion.HTTP_1_1;
         boolean close = false;
         boolean chunkedHint = _info.getTrailersSupplier() != null;
-        boolean contentType = false;
+        boolean contentType = template != null && template.hasContentType();
         long contentLength = _info.getContentLength();
         boolean contentLengthField = false;
 
@@ -590,6 +594,9 @@ public class HttpGenerator
             for (int f = 0; f < n; f++)
             {
                 HttpField field = fields.getField(f);
+                // The fields of the template have already been put
+                if (template != null && template.contains(field))
+                    continue;
                 HttpHeader h = field.getHeader();
                 if (h == null)
                     putTo(field, header);
@@ -17,6 +17,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
@@ -831,31 +832,8 @@ public class HttpParser
                             {
                                 _uri.reset();
                                 setState(State.URI);
-                                // quick scan for space or EoBuffer
-                                if (buffer.hasArray())
-                                {
-                                    byte[] array = buffer.array();
-                                    int p = buffer.arrayOffset() + buffer.position();
-                                    int l = buffer.arrayOffset() + buffer.limit();
-                                    int i = p;
-                                    while (i < l && array[i] > HttpTokens.SPACE)
-                                    {
-                                        i++;
-                                    }
-
-                                    int len = i - p;
-                                    _headerBytes += len;
-
-                                    if (_maxHeaderBytes > 0 && ++_headerBytes > _maxHeaderBytes)
-                                    {
-                                        LOG.warn("URI is too large >{}", _maxHeaderBytes);
-                                        throw new BadMessageException(HttpStatus.URI_TOO_LONG_414);
-                                    }
-                                    _uri.append(array, p - 1, len + 1);
-                                    buffer.position(i - buffer.arrayOffset());
-                                }
-                                else
-                                    _uri.append(t.getByte());
+                                _uri.append(t.getByte());
+                                parseUriBytes(buffer);
                             }
                             break;
 
@@ -945,6 +923,7 @@ public class HttpParser
                         case COLON:
                         case OTEXT:
                             _uri.append(t.getByte());
+                            parseUriBytes(buffer);
                             break;
 
                         default:
@@ -1061,6 +1040,82 @@ public class HttpParser
         return handle;
     }
 
+    /**
+     * Appends to the URI the run of URI bytes that follows in the buffer,
+     * up to the next SPACE, control character or the end of the buffer.
+     */
+    private void parseUriBytes(ByteBuffer buffer)
+    {
+        int position = buffer.position();
+        int end = HttpTokens.indexOfDelimiter(buffer, position, buffer.limit(), true);
+        if (end == position)
+            return;
+
+        _headerBytes += end - position;
+        if (_maxHeaderBytes > 0 && _headerBytes > _maxHeaderBytes)
+        {
+            LOG.warn("URI is too large >{}", _maxHeaderBytes);
+            throw new BadMessageException(HttpStatus.URI_TOO_LONG_414);
+        }
+
+        if (buffer.hasArray())
+        {
+            _uri.append(buffer.array(), buffer.arrayOffset() + position, end - position);
+        }
+        else
+        {
+            for (int i = position; i < end; i++)
+            {
+                _uri.append(buffer.get(i));
+            }
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * Appends to the field value the run of value bytes that follows in the buffer,
+     * up to the next control character (usually the CR or LF ending the field) or the end of the buffer.
+     */
+    private void parseValueBytes(ByteBuffer buffer)
+    {
+        int position = buffer.position();
+        int end = HttpTokens.indexOfDelimiter(buffer, position, buffer.limit(), false);
+        if (end == position)
+            return;
+
+        _headerBytes += end - position;
+        if (_maxHeaderBytes > 0 && _headerBytes > _maxHeaderBytes)
+        {
+            boolean header = _state == State.HEADER;
+            LOG.warn("{} is too large {}>{}", header ? "Header" : "Trailer", _headerBytes, _maxHeaderBytes);
+            throw new BadMessageException(header
+                ? HttpStatus.REQUEST_HEADER_FIELDS_TOO_LARGE_431
+                : HttpStatus.PAYLOAD_TOO_LARGE_413);
+        }
+
+        // Trailing spaces are appended, but not counted in the length.
+        int length = _length;
+        for (int i = position; i < end; i++)
+        {
+            char c = (char)(0xFF & buffer.get(i));
+            _string.append(c);
+            if (c != ' ')
+                length = _string.length();
+        }
+        _length = length;
+        buffer.position(end);
+    }
+
+    private static boolean equalsValue(ByteBuffer buffer, int position, String value)
+    {
+        for (int i = 0; i < value.length(); i++)
+        {
+            if ((0xFF & buffer.get(position + i)) != value.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
     private void checkVersion()
     {
         if (_version == null)
@@ -1185,7 +1240,20 @@ public class HttpParser
                         addToFieldCache = _field == null && _fieldCache.cacheable(_header, _valueString);
                         break;
 
+                    case CONTENT_TYPE:
+                    case DATE:
+                    case EXPECT:
+                    case IF_MATCH:
+                    case IF_MODIFIED_SINCE:
+                    case IF_NONE_MATCH:
+                    case IF_RANGE:
+                    case IF_UNMODIFIED_SINCE:
+                    case RANGE:
+                        break;
+
                     default:
+                        // Other headers are cached if their value repeats
+                        addToFieldCache = _field == null && _fieldCache.learn(_headerString, _valueString);
                         break;
                 }
 
@@ -1198,6 +1266,12 @@ public class HttpParser
                     _fieldCache.add(_field);
                 }
             }
+            else if (_field == null && _fieldCache.learn(_headerString, _valueString))
+            {
+                // Unknown header, cache it if its value repeats
+                _field = new HttpField(null, _headerString, _valueString);
+                _fieldCache.add(_field);
+            }
             if (LOG.isDebugEnabled())
                 LOG.debug("parsedHeader({}) header={}, headerString=[{}], valueString=[{}]", _field, _header, _headerString, _valueString);
             _handler.parsedHeader(_field != null ? _field : new HttpField(_header, _headerString, _valueString));
@@ -1370,6 +1444,7 @@ public class HttpParser
                                 // Need to use an offset of -1 and to increase the remaining since we have already consumed
                                 // the first ALPHA/DIGIT/TCHAR byte to switch to this case.
                                 HttpField cachedField = _fieldCache.getBest(buffer, -1, buffer.remaining() + 1);
+                                boolean dynamic = cachedField != null;
                                 if (cachedField == null)
                                     cachedField = CACHE.getBest(buffer, -1, buffer.remaining() + 1);
 
@@ -1392,14 +1467,13 @@ public class HttpParser
                                             }
                                         }
 
-                                        if (isHeaderCacheCaseSensitive())
+                                        // Values of the dynamic cache are connection specific, for example credentials,
+                                        // so they must match exactly even if the cache lookup is case insensitive.
+                                        int valuePosition = buffer.position() + n.length() + 1;
+                                        if ((dynamic || isHeaderCacheCaseSensitive()) && !equalsValue(buffer, valuePosition, v))
                                         {
-                                            String ev = BufferUtil.toString(buffer, buffer.position() + n.length() + 1, v.length(), StandardCharsets.ISO_8859_1);
-                                            if (!v.equals(ev))
-                                            {
-                                                v = ev;
-                                                cachedField = new HttpField(cachedField.getHeader(), n, v);
-                                            }
+                                            v = BufferUtil.toString(buffer, valuePosition, v.length(), StandardCharsets.ISO_8859_1);
+                                            cachedField = new HttpField(cachedField.getHeader(), n, v);
                                         }
                                     }
 
@@ -1555,6 +1629,7 @@ public class HttpParser
                             _string.append(t.getChar());
                             _length = _string.length();
                             setState(FieldState.IN_VALUE);
+                            parseValueBytes(buffer);
                             break;
 
                         default:
@@ -1587,6 +1662,7 @@ public class HttpParser
                         case OTEXT: // TODO review? should this be a utf8 string?
                             _string.append(t.getChar());
                             _length = _string.length();
+                            parseValueBytes(buffer);
                             break;
 
                         default:
@@ -2165,9 +2241,12 @@ public class HttpParser
 
     private static class FieldCache
     {
+        private static final int MAX_CANDIDATES = 64;
+
         private int _size = 1024;
         private Index.Mutable<HttpField> _cache;
         private List<HttpField> _cacheableFields;
+        private Map<String, String> _candidates;
         private boolean _caseSensitive;
 
         public int getCapacity()
@@ -2230,6 +2309,34 @@ public class HttpParser
             return isEnabled() && header != null && valueString != null && valueString.length() <= _size;
         }
 
+        /**
+         * <p>Learns the fields whose value repeats on a connection.</p>
+         * <p>The first time a field name is seen its value is remembered as a candidate,
+         * and the field becomes cacheable only when a later field has the same name and value,
+         * so that fields whose value changes at every request, such as request identifiers,
+         * do not evict the others from the cache.</p>
+         *
+         * @param name the field name
+         * @param value the field value
+         * @return true if the field value repeats and should be cached
+         */
+        public boolean learn(String name, String value)
+        {
+            if (!isEnabled() || name == null || value == null || name.length() + value.length() >= _size)
+                return false;
+            if (_candidates == null)
+                _candidates = new HashMap<>();
+            String candidate = _candidates.get(name);
+            if (value.equals(candidate))
+            {
+                _candidates.remove(name);
+                return true;
+            }
+            if (candidate != null || _candidates.size() < MAX_CANDIDATES)
+                _candidates.put(name, value);
+            return false;
+        }
+
         private void prepare()
         {
             if (_cache == null && _cacheableFields != null)
@@ -13,6 +13,9 @@
 
 package ab.squirrel.http;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import ab.squirrel.util.TypeUtil;
 
 /**
@@ -27,6 +30,10 @@ public class HttpTokens
     static final byte SPACE = 0x20;
     static final byte[] CRLF = {CARRIAGE_RETURN, LINE_FEED};
 
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long DELS = 0x7F7F7F7F7F7F7F7FL;
+
     public enum EndOfContent
     {
         UNKNOWN_CONTENT, NO_CONTENT, EOF_CONTENT, CONTENT_LENGTH, CHUNKED_CONTENT
@@ -232,6 +239,48 @@ public class HttpTokens
         }
     }
 
+    /**
+     * <p>Finds the first byte that ends a run of visible characters.</p>
+     * <p>The bytes are examined 8 at a time, using SWAR (SIMD within a register)
+     * arithmetic on {@code long} words, so that long runs of visible characters,
+     * such as URIs and field values, are skipped without a token lookup per byte.</p>
+     *
+     * @param buffer the buffer to scan
+     * @param index the index of the first byte to examine
+     * @param limit the index after the last byte to examine
+     * @param space whether a SPACE also ends the run
+     * @return the index of the first control character (including HTAB, CR and LF),
+     * DEL, or SPACE if {@code space} is true, or {@code limit} if there is none
+     */
+    static int indexOfDelimiter(ByteBuffer buffer, int index, int limit, boolean space)
+    {
+        int below = space ? SPACE + 1 : SPACE;
+        long belows = below * ONES;
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        while (limit - index >= Long.BYTES)
+        {
+            // Read the bytes so that the first one is the least significant:
+            // the borrows of the subtractions only propagate to the following bytes,
+            // so the lowest high bit set is exactly the first matching byte.
+            long word = buffer.getLong(index);
+            if (bigEndian)
+                word = Long.reverseBytes(word);
+            long dels = word ^ DELS;
+            long found = ((word - belows) & ~word | (dels - ONES) & ~dels) & HIGH_BITS;
+            if (found != 0)
+                return index + (Long.numberOfTrailingZeros(found) >>> 3);
+            index += Long.BYTES;
+        }
+        while (index < limit)
+        {
+            int b = 0xFF & buffer.get(index);
+            if (b < below || b == 0x7F)
+                return index;
+            index++;
+        }
+        return limit;
+    }
+
     /**
      * This is used when decoding to not decode illegal characters based on RFC9110.
      * CR, LF, or NUL are replaced with ' ', all other control and multibyte characters
@@ -13,6 +13,8 @@
 
 package ab.squirrel.http;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serial;
 import java.io.Serializable;
 import java.net.URI;
@@ -24,6 +26,7 @@ import java.util.Set;
 import ab.squirrel.http.UriCompliance.Violation;
 import ab.squirrel.util.HostPort;
 import ab.squirrel.util.Index;
+import ab.squirrel.util.QueryParameters;
 import ab.squirrel.util.StringUtil;
 import ab.squirrel.util.TypeUtil;
 import ab.squirrel.util.URIUtil;
@@ -78,6 +81,11 @@ import ab.squirrel.util.URIUtil;
  * <p>
  * If there are multiple path parameters, only the last one is returned by {@link #getParam()}.
  * </p>
+ * <p>
+ * The query of a parsed URI is only recorded as a range of the parsed string, and the
+ * decoded path of an {@link Immutable} is only computed once, so that the components
+ * that are never asked for are never copied out of the request target.
+ * </p>
  **/
 public interface HttpURI
 {
@@ -185,6 +193,15 @@ public interface HttpURI
 
     String getQuery();
 
+    /**
+     * @return a view of the query parameters, over the query within the parsed
+     * URI string if the query has not been extracted yet, so without copying it
+     */
+    default QueryParameters getQueryParameters()
+    {
+        return new QueryParameters(getQuery());
+    }
+
     String getScheme();
 
     String getUser();
@@ -278,10 +295,14 @@ public interface HttpURI
         private final int _port;
         private final String _path;
         private final String _param;
-        private final String _query;
+        private String _query;
+        private final transient String _querySource;
+        private final int _queryStart;
+        private final int _queryEnd;
         private final String _fragment;
         private String _uri;
         private String _canonicalPath;
+        private transient String _decodedPath;
         private Set<Violation> _violations;
 
         private Immutable(Mutable builder)
@@ -293,6 +314,9 @@ public interface HttpURI
             _path = builder._path;
             _param = builder._param;
             _query = builder._query;
+            _querySource = builder._querySource;
+            _queryStart = builder._queryStart;
+            _queryEnd = builder._queryEnd;
             _fragment = builder._fragment;
             _uri = builder._uri;
             _canonicalPath = builder._canonicalPath;
@@ -312,9 +336,20 @@ public interface HttpURI
             _canonicalPath = _path == null ? null : URIUtil.canonicalPath(_path);
             _param = null;
             _query = query;
+            _querySource = null;
+            _queryStart = 0;
+            _queryEnd = 0;
             _fragment = fragment;
         }
 
+        @Serial
+        private void writeObject(ObjectOutputStream out) throws IOException
+        {
+            // The query source is not serialized.
+            getQuery();
+            out.defaultWriteObject();
+        }
+
         @Override
         public Immutable asImmutable()
         {
@@ -344,7 +379,8 @@ public interface HttpURI
                     out.append(':').append(normalizedPort);
 
                 // we output even if the input is an empty string (to match java URI / URL behaviors)
-                boolean hasQuery = _query != null;
+                String query = getQuery();
+                boolean hasQuery = query != null;
                 boolean hasFragment = _fragment != null;
 
                 if (_path != null)
@@ -353,7 +389,7 @@ public interface HttpURI
                     out.append('/');
 
                 if (hasQuery)
-                    out.append('?').append(_query);
+                    out.append('?').append(query);
 
                 if (hasFragment)
                     out.append('#').append(_fragment);
@@ -387,7 +423,16 @@ public interface HttpURI
         @Override
         public String getDecodedPath()
         {
-            return URIUtil.decodePath(getCanonicalPath());
+            String decodedPath = _decodedPath;
+            if (decodedPath == null)
+            {
+                String canonicalPath = getCanonicalPath();
+                if (canonicalPath == null)
+                    return null;
+                decodedPath = URIUtil.decodePath(canonicalPath);
+                _decodedPath = decodedPath;
+            }
+            return decodedPath;
         }
 
         @Override
@@ -428,9 +473,10 @@ public interface HttpURI
         @Override
         public String getPathQuery()
         {
-            if (_query == null)
+            String query = getQuery();
+            if (query == null)
                 return _path;
-            return _path + "?" + _query;
+            return _path + "?" + query;
         }
 
         @Override
@@ -442,7 +488,22 @@ public interface HttpURI
         @Override
         public String getQuery()
         {
-            return _query;
+            // The immutable URI may be shared, so the query source is kept.
+            String query = _query;
+            if (query == null && _querySource != null)
+            {
+                query = _querySource.substring(_queryStart, _queryEnd);
+                _query = query;
+            }
+            return query;
+        }
+
+        @Override
+        public QueryParameters getQueryParameters()
+        {
+            if (_query == null && _querySource != null)
+                return new QueryParameters(_querySource, _queryStart, _queryEnd - _queryStart);
+            return new QueryParameters(_query);
         }
 
         @Override
@@ -650,6 +711,9 @@ public interface HttpURI
         private String _path;
         private String _param;
         private String _query;
+        private String _querySource;
+        private int _queryStart;
+        private int _queryEnd;
         private String _fragment;
         private String _uri;
         private String _canonicalPath;
@@ -692,7 +756,7 @@ public interface HttpURI
             if (param != null)
                 _param = param;
             if (query != null)
-                _query = query;
+                query(query);
         }
 
         private Mutable(String uri)
@@ -715,7 +779,7 @@ public interface HttpURI
             String path = uri.getRawPath();
             if (path != null)
                 parse(State.PATH, path);
-            _query = uri.getRawQuery();
+            query(uri.getRawQuery());
             _fragment = uri.getRawFragment();
         }
 
@@ -793,6 +857,7 @@ public interface HttpURI
             _path = null;
             _param = null;
             _query = null;
+            _querySource = null;
             _fragment = null;
             _uri = null;
             _canonicalPath = null;
@@ -875,9 +940,10 @@ public interface HttpURI
         @Override
         public String getPathQuery()
         {
-            if (_query == null)
+            String query = getQuery();
+            if (query == null)
                 return _path;
-            return _path + "?" + _query;
+            return _path + "?" + query;
         }
 
         @Override
@@ -889,9 +955,22 @@ public interface HttpURI
         @Override
         public String getQuery()
         {
+            if (_query == null && _querySource != null)
+            {
+                _query = _querySource.substring(_queryStart, _queryEnd);
+                _querySource = null;
+            }
             return _query;
         }
 
+        @Override
+        public QueryParameters getQueryParameters()
+        {
+            if (_query == null && _querySource != null)
+                return new QueryParameters(_querySource, _queryStart, _queryEnd - _queryStart);
+            return new QueryParameters(_query);
+        }
+
         @Override
         public String getScheme()
         {
@@ -1021,6 +1100,7 @@ public interface HttpURI
             _canonicalPath = null;
             _param = null;
             _query = null;
+            _querySource = null;
             if (pathQuery != null)
                 parse(State.PATH, pathQuery);
             return this;
@@ -1036,6 +1116,7 @@ public interface HttpURI
         public Mutable query(String query)
         {
             _query = query;
+            _querySource = null;
             _uri = null;
             return this;
         }
@@ -1066,7 +1147,10 @@ public interface HttpURI
             _port = uri.getPort();
             _path = uri.getPath();
             _param = uri.getParam();
-            _query = uri.getQuery();
+            if (uri instanceof Immutable immutable && immutable._query == null && immutable._querySource != null)
+                query(immutable._querySource, immutable._queryStart, immutable._queryEnd);
+            else
+                query(uri.getQuery());
             _uri = null;
             _canonicalPath = uri.getCanonicalPath();
             Collection<Violation> violations = uri.getViolations();
@@ -1506,7 +1590,7 @@ public interface HttpURI
                     {
                         if (c == '#')
                         {
-                            _query = uri.substring(mark, i);
+                            query(uri, mark, i);
                             mark = i + 1;
                             state = State.FRAGMENT;
                         }
@@ -1559,7 +1643,7 @@ public interface HttpURI
                     _path = uri.substring(pathMark, end);
                     break;
                 case QUERY:
-                    _query = uri.substring(mark, end);
+                    query(uri, mark, end);
                     break;
                 case FRAGMENT:
                     _fragment = uri.substring(mark, end);
@@ -1585,6 +1669,17 @@ public interface HttpURI
             }
         }
 
+        /**
+         * <p>Sets the query as a range of a string, which is only copied when the query is asked for.</p>
+         */
+        private void query(String source, int start, int end)
+        {
+            _query = null;
+            _querySource = source;
+            _queryStart = start;
+            _queryEnd = end;
+        }
+
         private RuntimeException onBadUtf8()
         {
             // We just remember the violation and return null so nothing is thrown
@@ -525,6 +525,59 @@ public class MultiPart
         }
     }
 
+    /**
+     * <p>A {@link Part} whose content has been written to a {@link Content.Sink}
+     * while it was parsed, so that its content is not available from this part.</p>
+     */
+    public static class SinkPart extends Part
+    {
+        private final Content.Sink sink;
+        private final long length;
+
+        public SinkPart(String name, String fileName, HttpFields fields, Content.Sink sink, long length)
+        {
+            super(name, fileName, fields);
+            this.sink = Objects.requireNonNull(sink);
+            this.length = length;
+        }
+
+        /**
+         * @return the sink the content of this part has been written to
+         */
+        public Content.Sink getSink()
+        {
+            return sink;
+        }
+
+        @Override
+        public long getLength()
+        {
+            return length;
+        }
+
+        /**
+         * @return always null, as the content has been written to the {@link #getSink() sink}
+         */
+        @Override
+        public Content.Source newContentSource()
+        {
+            return null;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "%s@%x[name=%s,fileName=%s,length=%d,sink=%s]".formatted(
+                getClass().getSimpleName(),
+                hashCode(),
+                getName(),
+                getFileName(),
+                getLength(),
+                getSink()
+            );
+        }
+    }
+
     /**
      * <p>An asynchronous {@link Content.Source} where {@link Part}s can
      * be added to it to form a multipart content.</p>
@@ -1739,6 +1792,14 @@ public class MultiPart
             return fileName;
         }
 
+        /**
+         * @return the headers of the current part parsed so far
+         */
+        public HttpFields getHeaders()
+        {
+            return fields.asImmutable();
+        }
+
         @Override
         public void onPartHeader(String headerName, String headerValue)
         {
@@ -14,6 +14,7 @@
 package ab.squirrel.http;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.SeekableByteChannel;
@@ -21,16 +22,20 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 import ab.squirrel.io.Content;
 import ab.squirrel.io.content.AbstractContentSource;
 import ab.squirrel.util.Attributes;
+import ab.squirrel.util.Callback;
 import ab.squirrel.util.IO;
 import ab.squirrel.util.StringUtil;
 import ab.squirrel.util.thread.AutoLock;
@@ -67,6 +72,33 @@ import static java.nio.charset.StandardCharsets.US_ASCII;
  *     // When complete, use the parts.
  *     .thenAccept(parts -> ...);
  * }</pre>
+ * <p>Alternatively, the content of some parts may be streamed to a {@link Content.Sink}
+ * provided by a {@link PartSinkFactory}, for example a channel to the final location
+ * of an uploaded file, so that the content is written only once and is not held in
+ * memory nor in a temporary file:</p>
+ * <pre>{@code
+ * formData.setPartSinkFactory((name, fileName, headers) ->
+ * {
+ *     if (fileName == null)
+ *         return null; // Store the part as usual.
+ *     SeekableByteChannel channel = Files.newByteChannel(uploads.resolve(fileName), CREATE_NEW, WRITE);
+ *     return (last, buffer, callback) ->
+ *     {
+ *         try
+ *         {
+ *             while (buffer.hasRemaining())
+ *                 channel.write(buffer);
+ *             if (last)
+ *                 channel.close();
+ *             callback.succeeded();
+ *         }
+ *         catch (Throwable x)
+ *         {
+ *             callback.failed(x);
+ *         }
+ *     };
+ * });
+ * }</pre>
  *
  * @see Parts
  */
@@ -237,6 +269,47 @@ public class MultiPartFormData
         }
     }
 
+    /**
+     * <p>A factory of {@link Content.Sink}s where the content of the parts is streamed
+     * while it is parsed, rather than stored in memory or in a temporary file.</p>
+     *
+     * @see Parser#setPartSinkFactory(PartSinkFactory)
+     */
+    @FunctionalInterface
+    public interface PartSinkFactory
+    {
+        /**
+         * <p>Returns the sink where the content of a part is written.</p>
+         * <p>The content is written in order, and no more content is read until each write
+         * completes, so the memory used does not depend on the size of the part.
+         * The last write has {@code last=true}, unless the parsing or a write fails, in which case
+         * the sink is not written to anymore and {@link #failed(Content.Sink, Throwable)} is called.</p>
+         * <p>The part is then available from {@link Parts} as a {@link MultiPart.SinkPart},
+         * and {@link Parts} are only available when all the writes have completed.</p>
+         *
+         * @param name the part name
+         * @param fileName the part file name, or null
+         * @param headers the part headers
+         * @return the sink where the content of the part is written,
+         * or null to store the part content in memory or in a file as usual
+         * @throws IOException if the sink cannot be created, which fails the parsing
+         */
+        Content.Sink newPartSink(String name, String fileName, HttpFields headers) throws IOException;
+
+        /**
+         * <p>Callback method invoked when the parsing or a write fails before the last write
+         * to a sink has completed, once no write to the sink is pending.</p>
+         * <p>Implementations should release the resources of the sink, for example
+         * close its channel and delete the partially written file.</p>
+         *
+         * @param sink the sink returned by {@link #newPartSink(String, String, HttpFields)}
+         * @param failure the failure
+         */
+        default void failed(Content.Sink sink, Throwable failure)
+        {
+        }
+    }
+
     /**
      * <p>The multipart/form-data specific content source.</p>
      *
@@ -276,6 +349,7 @@ public class MultiPartFormData
         private long maxFileSize = -1;
         private long maxMemoryFileSize;
         private long maxLength = -1;
+        private PartSinkFactory partSinkFactory;
         private long length;
         private Parts parts;
 
@@ -311,7 +385,35 @@ public class MultiPartFormData
                     parser.parse(chunk);
                     if (listener.isFailed())
                         throw listener.failure;
-                    return parts;
+                    // The parts are complete only when their content is written.
+                    return listener.hasPendingWrites() ? null : parts;
+                }
+
+                @Override
+                protected boolean onChunkParsed()
+                {
+                    if (!listener.writePending(this::resume))
+                        return false;
+                    if (listener.isFailed())
+                    {
+                        completeExceptionally(listener.failure);
+                        return false;
+                    }
+                    // The parts may have been waiting for their writes to complete.
+                    if (parts != null)
+                    {
+                        complete(parts);
+                        return false;
+                    }
+                    return true;
+                }
+
+                private void resume()
+                {
+                    // Complete on a write failure, or after the writes of the
+                    // last part, without waiting for the next chunk.
+                    if (onChunkParsed())
+                        parse();
                 }
 
                 @Override
@@ -483,6 +585,29 @@ public class MultiPartFormData
             parser.setMaxParts(maxParts);
         }
 
+        /**
+         * @return the factory of the sinks where the content of the parts is streamed, or null
+         */
+        public PartSinkFactory getPartSinkFactory()
+        {
+            return partSinkFactory;
+        }
+
+        /**
+         * <p>Sets the factory of the sinks where the content of the parts is streamed
+         * while it is parsed.</p>
+         * <p>The content of a streamed part is not subject to {@link #setMaxMemoryFileSize(long)}
+         * and is not saved in {@link #setFilesDirectory(Path)}, but its size is still
+         * limited by {@link #setMaxFileSize(long)}.</p>
+         *
+         * @param partSinkFactory the factory of the sinks where the content of the parts is streamed,
+         * or null to store the content of all the parts
+         */
+        public void setPartSinkFactory(PartSinkFactory partSinkFactory)
+        {
+            this.partSinkFactory = partSinkFactory;
+        }
+
         /**
          * Configure the Parser given a {@link MultiPartConfig} instance.
          * @param config the configuration.
@@ -511,11 +636,38 @@ public class MultiPartFormData
             private final AutoLock lock = new AutoLock();
             private final List<MultiPart.Part> parts = new ArrayList<>();
             private final List<Content.Chunk> partChunks = new ArrayList<>();
+            private final Queue<PartWrite> partWrites = new ArrayDeque<>();
+            private final List<Content.Sink> partSinks = new ArrayList<>();
             private long size;
             private Path filePath;
             private SeekableByteChannel fileChannel;
+            private Content.Sink partSink;
+            private boolean writing;
             private Throwable failure;
 
+            @Override
+            public void onPartHeaders()
+            {
+                PartSinkFactory factory = getPartSinkFactory();
+                if (factory == null)
+                    return;
+                try
+                {
+                    Content.Sink sink = factory.newPartSink(getName(), getFileName(), getHeaders());
+                    try (AutoLock ignored = lock.lock())
+                    {
+                        partSink = sink;
+                        // Tracked until its last write completes.
+                        if (sink != null)
+                            partSinks.add(sink);
+                    }
+                }
+                catch (Throwable x)
+                {
+                    onFailure(x);
+                }
+            }
+
             @Override
             public void onPartContent(Content.Chunk chunk)
             {
@@ -528,6 +680,20 @@ public class MultiPartFormData
                     return;
                 }
 
+                try (AutoLock ignored = lock.lock())
+                {
+                    if (partSink != null)
+                    {
+                        // Retain the chunk until it is written by writePending().
+                        if (failure == null)
+                        {
+                            chunk.retain();
+                            partWrites.add(new PartWrite(partSink, chunk));
+                        }
+                        return;
+                    }
+                }
+
                 String fileName = getFileName();
                 if (fileName != null || isUseFilesForPartsWithoutFileName())
                 {
@@ -622,6 +788,7 @@ public class MultiPartFormData
             @Override
             public void onPart(String name, String fileName, HttpFields headers)
             {
+                long partSize = size;
                 size = 0;
                 try (AutoLock ignored = lock.lock())
                 {
@@ -660,11 +827,14 @@ public class MultiPartFormData
                     }
 
                     MultiPart.Part part;
-                    if (fileChannel != null)
+                    if (partSink != null)
+                        part = new MultiPart.SinkPart(name, fileName, headers, partSink, partSize);
+                    else if (fileChannel != null)
                         part = new MultiPart.PathPart(name, fileName, headers, filePath);
                     else
                         part = new MultiPart.ChunksPart(name, fileName, headers, List.copyOf(partChunks));
                     // Reset part-related state.
+                    partSink = null;
                     filePath = null;
                     fileChannel = null;
                     partChunks.forEach(Content.Chunk::release);
@@ -731,6 +901,7 @@ public class MultiPartFormData
             private void fail(Throwable cause)
             {
                 List<MultiPart.Part> partsToFail;
+                List<Content.Sink> sinksToFail;
                 try (AutoLock ignored = lock.lock())
                 {
                     if (failure != null)
@@ -740,8 +911,21 @@ public class MultiPartFormData
                     parts.clear();
                     partChunks.forEach(Content.Chunk::release);
                     partChunks.clear();
+                    // The chunk being written is released when the write completes.
+                    PartWrite current = writing ? partWrites.poll() : null;
+                    partWrites.forEach(write -> write.chunk().release());
+                    partWrites.clear();
+                    if (current != null)
+                        partWrites.add(current);
+                    partSink = null;
+                    // The sink being written is failed when the write completes.
+                    sinksToFail = new ArrayList<>(partSinks);
+                    partSinks.clear();
+                    if (current != null && sinksToFail.remove(current.sink()))
+                        partSinks.add(current.sink());
                 }
                 partsToFail.forEach(p -> p.fail(cause));
+                sinksToFail.forEach(sink -> failPartSink(sink, cause));
                 close();
                 delete();
             }
@@ -776,6 +960,132 @@ public class MultiPartFormData
                 }
             }
 
+            private boolean hasPendingWrites()
+            {
+                try (AutoLock ignored = lock.lock())
+                {
+                    return !partWrites.isEmpty();
+                }
+            }
+
+            /**
+             * <p>Writes the pending part content chunks to their sinks, one at a time.</p>
+             *
+             * @param resume the task to run when the writes complete asynchronously
+             * @return true if there are no more pending writes, false if the
+             * writes are in progress and {@code resume} will be run when they complete
+             */
+            private boolean writePending(Runnable resume)
+            {
+                while (true)
+                {
+                    PartWrite write;
+                    try (AutoLock ignored = lock.lock())
+                    {
+                        write = partWrites.peek();
+                        writing = write != null;
+                    }
+                    if (write == null)
+                        return true;
+
+                    PartWriteCallback callback = new PartWriteCallback(resume);
+                    Content.Chunk chunk = write.chunk();
+                    write.sink().write(chunk.isLast(), chunk.getByteBuffer(), callback);
+                    if (!callback.completed())
+                        return false;
+                }
+            }
+
+            private void onWritten(Throwable writeFailure)
+            {
+                PartWrite write;
+                Throwable sinkFailure = null;
+                try (AutoLock ignored = lock.lock())
+                {
+                    write = partWrites.poll();
+                    writing = false;
+                    if (write != null)
+                    {
+                        if (writeFailure == null && write.chunk().isLast())
+                            partSinks.remove(write.sink());
+                        else if (failure != null && partSinks.remove(write.sink()))
+                            sinkFailure = failure;
+                    }
+                }
+                if (write != null)
+                {
+                    write.chunk().release();
+                    if (sinkFailure != null)
+                        failPartSink(write.sink(), sinkFailure);
+                }
+                if (writeFailure != null)
+                    onFailure(writeFailure);
+            }
+
+            private void failPartSink(Content.Sink sink, Throwable cause)
+            {
+                PartSinkFactory factory = getPartSinkFactory();
+                if (factory == null)
+                    return;
+                try
+                {
+                    factory.failed(sink, cause);
+                }
+                catch (Throwable x)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("failure while notifying {}", factory, x);
+                }
+            }
+
+            private record PartWrite(Content.Sink sink, Content.Chunk chunk)
+            {
+            }
+
+            private class PartWriteCallback implements Callback
+            {
+                private static final int PENDING = 0;
+                private static final int COMPLETED = 1;
+                private static final int ASYNC = 2;
+
+                private final AtomicInteger state = new AtomicInteger(PENDING);
+                private final Runnable resume;
+
+                private PartWriteCallback(Runnable resume)
+                {
+                    this.resume = resume;
+                }
+
+                @Override
+                public void succeeded()
+                {
+                    complete(null);
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    complete(x);
+                }
+
+                private void complete(Throwable x)
+                {
+                    onWritten(x);
+                    // If the write completed asynchronously, the writer has returned so it must be resumed.
+                    if (!state.compareAndSet(PENDING, COMPLETED) && (x != null || writePending(resume)))
+                        resume.run();
+                }
+
+                /**
+                 * @return whether the write has completed, otherwise the write
+                 * is asynchronous and {@link #complete(Throwable)} will resume
+                 */
+                private boolean completed()
+                {
+                    return !state.compareAndSet(PENDING, ASYNC);
+                }
+            }
+
             private boolean isFailed()
             {
                 try (AutoLock ignored = lock.lock())
@@ -32,15 +32,23 @@ import java.util.stream.Stream;
  * single thread.
  *
  * <p>The cookie handling provided by this class is guided by the Servlet specification and RFC6265.
+ *
+ * <p>The fields are kept in insertion order in an array. When there are more than
+ * {@value #INDEX_THRESHOLD} fields, lookups build a {@link FieldIndex} of the field positions,
+ * so that {@code get}, {@code contains} and {@code put} do not scan all the fields;
+ * the index is discarded when fields are removed or moved, and rebuilt by the next lookup.
  */
 class MutableHttpFields implements HttpFields.Mutable
 {
     private static final int INITIAL_SIZE = 16;
     private static final int SIZE_INCREMENT = 4;
+    private static final int INDEX_THRESHOLD = 16;
 
     private HttpField[] _fields;
     private boolean _immutable;
     private int _size;
+    private FieldIndex _fieldIndex;
+    private boolean _unindexable;
 
     /**
      * Initialize an empty HttpFields.
@@ -140,6 +148,8 @@ class MutableHttpFields implements HttpFields.Mutable
                 _fields = Arrays.copyOf(_fields, _size + SIZE_INCREMENT);
             }
             _fields[_size++] = field;
+            if (_fieldIndex != null && !_fieldIndex.add(_fields, _size - 1))
+                unindexable();
         }
         return this;
     }
@@ -150,6 +160,7 @@ class MutableHttpFields implements HttpFields.Mutable
         if (fields.size() == 0)
             return this;
 
+        _fieldIndex = null;
         if (_immutable || _size + fields.size() >= _fields.length)
         {
             _immutable = false;
@@ -201,9 +212,40 @@ class MutableHttpFields implements HttpFields.Mutable
             _immutable = false;
         }
         _size = 0;
+        _fieldIndex = null;
+        _unindexable = false;
         return this;
     }
 
+    /**
+     * @return the index of the fields, or null if the fields are few or cannot be indexed
+     */
+    private FieldIndex index()
+    {
+        FieldIndex index = _fieldIndex;
+        if (index == null && _size > INDEX_THRESHOLD && !_unindexable)
+        {
+            index = new FieldIndex();
+            for (int i = 0; i < _size; i++)
+            {
+                if (!index.add(_fields, i))
+                {
+                    unindexable();
+                    return null;
+                }
+            }
+            _fieldIndex = index;
+        }
+        return index;
+    }
+
+    private void unindexable()
+    {
+        // Some field names are inconsistent with their HttpHeader, use linear scans.
+        _fieldIndex = null;
+        _unindexable = true;
+    }
+
     @Override
     public int hashCode()
     {
@@ -245,6 +287,13 @@ class MutableHttpFields implements HttpFields.Mutable
     @Override
     public HttpField getField(HttpHeader header)
     {
+        FieldIndex index = index();
+        if (index != null)
+        {
+            int entry = index.get(header);
+            return entry == 0 ? null : _fields[FieldIndex.position(entry)];
+        }
+
         // default impl overridden for efficiency
         for (int i = 0; i < _size; i++)
         {
@@ -258,6 +307,13 @@ class MutableHttpFields implements HttpFields.Mutable
     @Override
     public HttpField getField(String name)
     {
+        FieldIndex index = index();
+        if (index != null)
+        {
+            int entry = index.get(_fields, name);
+            return entry == 0 ? null : _fields[FieldIndex.position(entry)];
+        }
+
         // default impl overridden for efficiency
         for (int i = 0; i < _size; i++)
         {
@@ -268,6 +324,32 @@ class MutableHttpFields implements HttpFields.Mutable
         return null;
     }
 
+    @Override
+    public boolean contains(HttpHeader header)
+    {
+        return getField(header) != null;
+    }
+
+    @Override
+    public boolean contains(String name)
+    {
+        return getField(name) != null;
+    }
+
+    @Override
+    public String get(HttpHeader header)
+    {
+        HttpField field = getField(header);
+        return field == null ? null : field.getValue();
+    }
+
+    @Override
+    public String get(String name)
+    {
+        HttpField field = getField(name);
+        return field == null ? null : field.getValue();
+    }
+
     @Override
     public Iterator<HttpField> iterator()
     {
@@ -314,6 +396,29 @@ class MutableHttpFields implements HttpFields.Mutable
     public Mutable put(HttpField field)
     {
         copyImmutable();
+
+        FieldIndex index = index();
+        if (index != null)
+        {
+            if (!FieldIndex.isIndexable(field))
+            {
+                unindexable();
+            }
+            else
+            {
+                int entry = index.get(_fields, field);
+                if (entry == 0)
+                    return add(field);
+                if (FieldIndex.count(entry) == 1)
+                {
+                    _fields[FieldIndex.position(entry)] = field;
+                    return this;
+                }
+            }
+        }
+
+        // Duplicates may be removed, so the index is rebuilt.
+        _fieldIndex = null;
         boolean put = false;
 
         for (int i = 0; i < _size; i++)
@@ -372,6 +477,8 @@ class MutableHttpFields implements HttpFields.Mutable
     public <T> Mutable computeField(T header, BiFunction<T, List<HttpField>, HttpField> computeFn, BiPredicate<HttpField, T> matcher)
     {
         copyImmutable();
+        // The computed field may have another name.
+        _fieldIndex = null;
         // Look for first occurrence
         int first = -1;
         for (int i = 0; i < _size; i++)
@@ -428,6 +535,9 @@ class MutableHttpFields implements HttpFields.Mutable
     @Override
     public Mutable remove(HttpHeader name)
     {
+        FieldIndex index = index();
+        if (index != null && index.get(name) == 0)
+            return this;
         for (int i = 0; i < _size; i++)
         {
             HttpField f = _fields[i];
@@ -452,6 +562,9 @@ class MutableHttpFields implements HttpFields.Mutable
     @Override
     public Mutable remove(String name)
     {
+        FieldIndex index = index();
+        if (index != null && index.get(_fields, name) == 0)
+            return this;
         for (int i = 0; i < _size; i++)
         {
             HttpField f = _fields[i];
@@ -463,6 +576,7 @@ class MutableHttpFields implements HttpFields.Mutable
 
     private void remove(int i)
     {
+        _fieldIndex = null;
         _size--;
         if (_immutable)
         {
@@ -514,6 +628,7 @@ class MutableHttpFields implements HttpFields.Mutable
             if (field == null)
                 return;
 
+            _fieldIndex = null;
             int last = _size++;
             if (_fields.length < _size)
                 _fields = Arrays.copyOf(_fields, _fields.length + SIZE_INCREMENT);
@@ -580,9 +695,141 @@ class MutableHttpFields implements HttpFields.Mutable
             if (_last < 0)
                 throw new IllegalStateException();
             if (field == null)
+            {
                 remove();
+            }
             else
+            {
+                _fieldIndex = null;
                 _fields[_last] = field;
+            }
+        }
+    }
+
+    /**
+     * <p>An index of the positions of the fields by name.</p>
+     * <p>An entry packs the position of the first field with a name and the number of
+     * fields with that name, or is zero if there is no such field.
+     * The entries of the {@link HttpHeader}s are in an array indexed by ordinal, like an
+     * {@link java.util.EnumMap}, while the entries of the other names are in a small open
+     * addressing table, where the name of an entry is the name of the field at its position.</p>
+     */
+    private static class FieldIndex
+    {
+        private static final int COUNT_SHIFT = 16;
+        private static final int MAX_POSITION = (1 << COUNT_SHIFT) - 2;
+        private static final HttpHeader[] HEADERS = HttpHeader.values();
+
+        private final int[] _headers = new int[HEADERS.length];
+        private int[] _names = new int[16];
+        private int _namesSize;
+
+        /**
+         * @param field the field
+         * @return whether the name of the field is consistent with its header, so that
+         * lookups by header and by name find the same fields as a linear scan
+         */
+        static boolean isIndexable(HttpField field)
+        {
+            HttpHeader header = field.getHeader();
+            if (header != null)
+                return field.is(header.asString());
+            return HttpHeader.CACHE.get(field.getName()) == null;
+        }
+
+        static int position(int entry)
+        {
+            return (entry & ((1 << COUNT_SHIFT) - 1)) - 1;
+        }
+
+        static int count(int entry)
+        {
+            return entry >>> COUNT_SHIFT;
+        }
+
+        /**
+         * @param fields the fields
+         * @param position the position of the field to add
+         * @return false if the field cannot be indexed
+         */
+        boolean add(HttpField[] fields, int position)
+        {
+            HttpField field = fields[position];
+            if (position > MAX_POSITION || !isIndexable(field))
+                return false;
+            HttpHeader header = field.getHeader();
+            if (header != null)
+            {
+                _headers[header.ordinal()] = add(_headers[header.ordinal()], position);
+                return true;
+            }
+
+            String name = field.getName();
+            int slot = slot(fields, name, field.nameHashCode());
+            if (_names[slot] == 0)
+            {
+                if (2 * (_namesSize + 1) > _names.length)
+                {
+                    grow(fields);
+                    slot = slot(fields, name, field.nameHashCode());
+                }
+                _namesSize++;
+            }
+            _names[slot] = add(_names[slot], position);
+            return true;
+        }
+
+        private static int add(int entry, int position)
+        {
+            return entry == 0 ? (1 << COUNT_SHIFT) | (position + 1) : entry + (1 << COUNT_SHIFT);
+        }
+
+        int get(HttpHeader header)
+        {
+            return header == null ? 0 : _headers[header.ordinal()];
+        }
+
+        int get(HttpField[] fields, String name)
+        {
+            HttpHeader header = HttpHeader.CACHE.get(name);
+            if (header != null)
+                return _headers[header.ordinal()];
+            return _names[slot(fields, name, HttpField.nameHashCode(name))];
+        }
+
+        int get(HttpField[] fields, HttpField field)
+        {
+            HttpHeader header = field.getHeader();
+            if (header != null)
+                return _headers[header.ordinal()];
+            return get(fields, field.getName());
+        }
+
+        private int slot(HttpField[] fields, String name, int hash)
+        {
+            int mask = _names.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (true)
+            {
+                int entry = _names[slot];
+                if (entry == 0 || fields[position(entry)].is(name))
+                    return slot;
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void grow(HttpField[] fields)
+        {
+            int[] names = _names;
+            _names = new int[names.length * 2];
+            for (int entry : names)
+            {
+                if (entry != 0)
+                {
+                    HttpField field = fields[position(entry)];
+                    _names[slot(fields, field.getName(), field.nameHashCode())] = entry;
+                }
+            }
         }
     }
 }
@@ -0,0 +1,193 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ab.squirrel.util.StringUtil;
+
+/**
+ * <p>A pre-encoded response head, made of a status line and of constant fields.</p>
+ * <p>A template is typically created once for a kind of response, for example
+ * static content of a given media type, and its fields are then
+ * {@link #putTo(HttpFields.Mutable) put} into each response of that kind.
+ * The variable fields of the response, such as {@code Date}, {@code Last-Modified}
+ * or {@code Content-Length}, are added to the response as usual.</p>
+ * <p>When the {@link HttpGenerator} generates a response that still has the
+ * status and all the fields of a template, it writes the status line and the
+ * template fields with a single bulk put of the pre-encoded bytes, and only encodes
+ * the other fields. If any template field has been removed or replaced, the
+ * response is generated field by field, so using a template never changes the
+ * generated response other than the order of its fields.</p>
+ * <p>Fields that determine the framing of the message ({@code Content-Length},
+ * {@code Transfer-Encoding} and {@code Connection}) cannot be part of a template.</p>
+ */
+public class ResponseTemplate
+{
+    private final int _status;
+    private final List<HttpField> _fields;
+    private final byte[] _head;
+    private final long _mask;
+    private final boolean _contentType;
+
+    /**
+     * @param status the response status, which must not be informational
+     * @param fields the constant fields of the response, at most 64
+     */
+    public ResponseTemplate(int status, HttpField... fields)
+    {
+        if (HttpStatus.isInformational(status) || status < 100 || status > HttpStatus.MAX_CODE)
+            throw new IllegalArgumentException("Invalid status " + status);
+        if (fields.length > Long.SIZE)
+            throw new IllegalArgumentException("Too many fields " + fields.length);
+
+        _status = status;
+        String reason = HttpStatus.getMessage(status);
+        byte[] line = StringUtil.getBytes(HttpVersion.HTTP_1_1 + " " + status + " " + reason + "\r\n");
+
+        List<HttpField> templateFields = new ArrayList<>(fields.length);
+        int length = line.length;
+        boolean contentType = false;
+        for (int i = 0; i < fields.length; i++)
+        {
+            HttpField field = fields[i];
+            HttpHeader header = field.getHeader();
+            if (header == HttpHeader.CONTENT_LENGTH || header == HttpHeader.TRANSFER_ENCODING || header == HttpHeader.CONNECTION)
+                throw new IllegalArgumentException("Invalid template field " + field);
+            contentType |= header == HttpHeader.CONTENT_TYPE;
+            Field templateField = new Field(this, i, field);
+            templateFields.add(templateField);
+            length += templateField.getEncodedLength(HttpVersion.HTTP_1_1);
+        }
+
+        ByteBuffer head = ByteBuffer.allocate(length);
+        head.put(line);
+        for (HttpField field : templateFields)
+        {
+            ((Field)field).putTo(head, HttpVersion.HTTP_1_1);
+        }
+
+        _fields = Collections.unmodifiableList(templateFields);
+        _head = head.array();
+        _mask = fields.length == Long.SIZE ? -1L : (1L << fields.length) - 1;
+        _contentType = contentType;
+    }
+
+    /**
+     * @return the response status
+     */
+    public int getStatus()
+    {
+        return _status;
+    }
+
+    /**
+     * @return the fields of the template, which must be added to a response for the template to apply
+     */
+    public List<HttpField> getFields()
+    {
+        return _fields;
+    }
+
+    /**
+     * <p>Puts all the fields of this template into the given fields,
+     * replacing the existing fields with the same names.</p>
+     *
+     * @param fields the fields of a response
+     */
+    public void putTo(HttpFields.Mutable fields)
+    {
+        for (HttpField field : _fields)
+        {
+            fields.put(field);
+        }
+    }
+
+    /**
+     * @param response the response to generate
+     * @return the template whose status and fields are all in the response, or null
+     */
+    static ResponseTemplate from(MetaData.Response response)
+    {
+        HttpFields fields = response.getHttpFields();
+        if (fields == null)
+            return null;
+
+        ResponseTemplate template = null;
+        long mask = 0;
+        for (int i = 0; i < fields.size(); i++)
+        {
+            if (fields.getField(i) instanceof Field field)
+            {
+                if (template == null)
+                    template = field._template;
+                if (field._template == template)
+                    mask |= 1L << field._index;
+            }
+        }
+        if (template == null || mask != template._mask || response.getStatus() != template._status)
+            return null;
+        String reason = response.getReason();
+        if (reason != null && !reason.equals(HttpStatus.getMessage(template._status)))
+            return null;
+        return template;
+    }
+
+    /**
+     * @return whether this template has a {@code Content-Type} field
+     */
+    boolean hasContentType()
+    {
+        return _contentType;
+    }
+
+    /**
+     * @param buffer the buffer, in fill mode, into which the status line and the template fields are put
+     */
+    void putTo(ByteBuffer buffer)
+    {
+        buffer.put(_head);
+    }
+
+    /**
+     * @param field a response field
+     * @return whether the field is one of the fields of this template
+     */
+    boolean contains(HttpField field)
+    {
+        return field instanceof Field templateField && templateField._template == this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%d,%s}", getClass().getSimpleName(), hashCode(), _status, _fields);
+    }
+
+    private static class Field extends PreEncodedHttpField
+    {
+        private final ResponseTemplate _template;
+        private final int _index;
+
+        private Field(ResponseTemplate template, int index, HttpField field)
+        {
+            super(field.getHeader(), field.getName(), field.getValue());
+            _template = template;
+            _index = index;
+        }
+    }
+}
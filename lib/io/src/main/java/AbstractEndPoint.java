@@ -20,10 +20,12 @@ import java.nio.ByteBuffer;
 import java.nio.channels.WritePendingException;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import ab.squirrel.util.BufferUtil;
 import ab.squirrel.util.Callback;
+import ab.squirrel.util.NanoTime;
 import ab.squirrel.util.thread.Scheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,13 +48,34 @@ public abstract class AbstractEndPoint implements EndPoint
     private volatile long _idleNanoTime = System.nanoTime();
 
 
+    // Write and fill statistics, updated by the thread that flushes or that is
+    // notified of fill interest, which is at most one at a time, except that the
+    // pending write is also ended by the thread that closes this endpoint.
+    private final AtomicLong _writePendingNanoTime = new AtomicLong();
+    private final AtomicLong _writePendingTotalNanos = new AtomicLong();
+    private volatile long _bytesFlushed;
+    private volatile long _writePendingBytes;
+    private volatile long _fillInterestedNanoTime;
+    private volatile long _fillInterestedTotalNanos;
+
     private final FillInterest _fillInterest = new FillInterest()
     {
         @Override
         protected void needsFillInterest() throws IOException
         {
+            _fillInterestedNanoTime = NanoTime.now();
             AbstractEndPoint.this.needsFillInterest();
         }
+
+        @Override
+        public boolean fillable()
+        {
+            long interested = _fillInterestedNanoTime;
+            boolean notified = super.fillable();
+            if (notified)
+                _fillInterestedTotalNanos += NanoTime.since(interested);
+            return notified;
+        }
     };
     private final WriteFlusher _writeFlusher = new WriteFlusher(this)
     {
@@ -61,6 +84,28 @@ public abstract class AbstractEndPoint implements EndPoint
         {
             AbstractEndPoint.this.onIncompleteFlush();
         }
+
+        @Override
+        protected ByteBuffer[] flush(SocketAddress address, ByteBuffer[] buffers) throws IOException
+        {
+            ByteBuffer[] unflushed = super.flush(address, buffers);
+            if (unflushed == null)
+            {
+                writePendingEnded();
+            }
+            else
+            {
+                _writePendingNanoTime.compareAndSet(0, NanoTime.now());
+                _writePendingBytes = BufferUtil.remaining(unflushed);
+            }
+            return unflushed;
+        }
+
+        @Override
+        protected void onFlushed(long bytes)
+        {
+            _bytesFlushed += bytes;
+        }
     };
 
     protected AbstractEndPoint(Scheduler scheduler)
@@ -442,6 +487,7 @@ public abstract class AbstractEndPoint implements EndPoint
     @Override
     public void onClose(Throwable failure)
     {
+        writePendingEnded();
         if (failure == null)
         {
             _writeFlusher.onClose();
@@ -484,6 +530,58 @@ public abstract class AbstractEndPoint implements EndPoint
 
     protected abstract void needsFillInterest() throws IOException;
 
+    private void writePendingEnded()
+    {
+        // Only one of the flusher and the closer accounts the pending time.
+        long pending = _writePendingNanoTime.getAndSet(0);
+        if (pending != 0)
+        {
+            _writePendingTotalNanos.addAndGet(NanoTime.since(pending));
+            _writePendingBytes = 0;
+        }
+    }
+
+    /**
+     * @return the number of bytes flushed by this endpoint
+     */
+    public long getBytesFlushed()
+    {
+        return _bytesFlushed;
+    }
+
+    /**
+     * @return the number of bytes of the pending write, or 0 if no write is pending
+     */
+    public long getWritePendingBytes()
+    {
+        return _writePendingBytes;
+    }
+
+    /**
+     * @return the time in nanoseconds since the pending write could not be flushed, or 0 if no write is pending
+     */
+    public long getWritePendingNanos()
+    {
+        long pending = _writePendingNanoTime.get();
+        return pending == 0 ? 0 : NanoTime.since(pending);
+    }
+
+    /**
+     * @return the total time in nanoseconds that writes were pending, waiting for the peer to read
+     */
+    public long getWritePendingTotalNanos()
+    {
+        return _writePendingTotalNanos.get() + getWritePendingNanos();
+    }
+
+    /**
+     * @return the total time in nanoseconds that fill interest was registered before reads were possible
+     */
+    public long getFillInterestedTotalNanos()
+    {
+        return _fillInterestedTotalNanos;
+    }
+
     public FillInterest getFillInterest()
     {
         return _fillInterest;
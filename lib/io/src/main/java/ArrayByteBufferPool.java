@@ -21,10 +21,11 @@ import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.IntUnaryOperator;
@@ -34,7 +35,9 @@ import ab.squirrel.io.internal.CompoundPool;
 import ab.squirrel.io.internal.QueuedPool;
 import ab.squirrel.util.BufferUtil;
 import ab.squirrel.util.ConcurrentPool;
+import ab.squirrel.util.NanoTime;
 import ab.squirrel.util.Pool;
+import ab.squirrel.util.VirtualThreads;
 import ab.squirrel.util.annotation.ManagedAttribute;
 import ab.squirrel.util.annotation.ManagedObject;
 import ab.squirrel.util.annotation.ManagedOperation;
@@ -49,6 +52,15 @@ import org.slf4j.LoggerFactory;
  * 2048, and so on with capacities 3072, 4096, 5120, etc.</p>
  * <p>The {@code maxHeapMemory} and {@code maxDirectMemory} default heuristic is to use {@link Runtime#maxMemory()}
  * divided by 8.</p>
+ * <p>The memory retained by the idle pooled buffers is accounted as buffers enter and leave the pool,
+ * so checking it is cheap. When it exceeds the max memory, idle buffers are evicted from the least
+ * recently used buckets first.</p>
+ * <p>Optionally, each platform thread may cache a few buffers of each bucket, see
+ * {@link #setThreadCacheSize(int)}, so that most acquire/release pairs do not touch the
+ * shared buckets. The thread caches are refilled from and spilled to the buckets in batches,
+ * and the caches of the exited threads are released to the buckets when a new cache is created.</p>
+ * <p>See {@link Quadratic} for a pool with power of two bucket capacities, which is better suited
+ * when a large maximum capacity is needed.</p>
  */
 @ManagedObject
 public class ArrayByteBufferPool implements ByteBufferPool
@@ -64,7 +76,12 @@ public class ArrayByteBufferPool implements ByteBufferPool
     private final long _maxDirectMemory;
     private final IntUnaryOperator _bucketIndexFor;
     private final AtomicBoolean _evictor = new AtomicBoolean(false);
+    private final LongAdder _directMemory = new LongAdder();
+    private final LongAdder _heapMemory = new LongAdder();
+    private final ThreadLocal<ThreadCache> _threadCache = ThreadLocal.withInitial(this::newThreadCache);
+    private final Queue<ThreadCache> _threadCaches = new ConcurrentLinkedQueue<>();
     private boolean _statisticsEnabled;
+    private int _threadCacheSize;
 
     /**
      * Creates a new ArrayByteBufferPool with a default configuration.
@@ -151,8 +168,8 @@ public class ArrayByteBufferPool implements ByteBufferPool
         for (int i = 0; i < directArray.length; i++)
         {
             int capacity = Math.min(bucketCapacity.applyAsInt(i), maxCapacity);
-            directArray[i] = new RetainedBucket(capacity, maxBucketSize);
-            indirectArray[i] = new RetainedBucket(capacity, maxBucketSize);
+            directArray[i] = new RetainedBucket(i, capacity, maxBucketSize, true);
+            indirectArray[i] = new RetainedBucket(i, capacity, maxBucketSize, false);
         }
 
         _minCapacity = minCapacity;
@@ -184,6 +201,37 @@ public class ArrayByteBufferPool implements ByteBufferPool
         _statisticsEnabled = enabled;
     }
 
+    @ManagedAttribute("The number of buffers of each bucket cached by each platform thread")
+    public int getThreadCacheSize()
+    {
+        return _threadCacheSize;
+    }
+
+    /**
+     * <p>Sets the number of buffers of each bucket that each platform thread caches.</p>
+     * <p>A thread acquires buffers from, and releases buffers to, its own cache, which is
+     * refilled from the bucket with half its size when empty, and spills half its buffers
+     * to the bucket when full. The buffers held by the thread caches are not idle in the
+     * buckets, so they are not accounted in the retained memory and cannot be evicted; the
+     * caches of the threads that have exited are returned to the buckets when a bucket is full,
+     * when a thread creates its cache and when the pool is cleared. Virtual threads do not use a cache.</p>
+     * <p>This must be set before the pool is used: a cache can only be released by its own thread,
+     * so the size cannot be changed while live threads have a cache.</p>
+     *
+     * @param threadCacheSize the number of buffers of each bucket cached by each platform thread, or 0 for no cache
+     * @throws IllegalStateException if live threads have a cache
+     */
+    public void setThreadCacheSize(int threadCacheSize)
+    {
+        threadCacheSize = Math.max(0, threadCacheSize);
+        if (threadCacheSize == _threadCacheSize)
+            return;
+        releaseExitedThreadCaches();
+        if (!_threadCaches.isEmpty())
+            throw new IllegalStateException("Thread caches in use");
+        _threadCacheSize = threadCacheSize;
+    }
+
     @ManagedAttribute("The minimum pooled buffer capacity")
     public int getMinCapacity()
     {
@@ -206,21 +254,49 @@ public class ArrayByteBufferPool implements ByteBufferPool
             return RetainableByteBuffer.wrap(BufferUtil.allocate(size, direct));
 
         bucket.recordAcquire();
+        bucket.touch();
 
-        // Try to acquire a pooled entry.
-        Pool.Entry<RetainableByteBuffer> entry = bucket.getPool().acquire();
-        if (entry == null)
+        // Try to acquire a pooled buffer, from the thread cache if any.
+        ThreadCache cache = getThreadCache();
+        Buffer buffer = cache == null ? bucket.acquire() : cache.acquire(bucket);
+        if (buffer == null)
         {
-            ByteBuffer buffer = BufferUtil.allocate(bucket.getCapacity(), direct);
-            return new ReservedBuffer(buffer, bucket);
+            ByteBuffer byteBuffer = BufferUtil.allocate(bucket.getCapacity(), direct);
+            return new ReservedBuffer(byteBuffer, bucket);
         }
 
         bucket.recordPooled();
-        RetainableByteBuffer buffer = entry.getPooled();
-        ((Buffer)buffer).acquire();
+        buffer.acquire();
         return buffer;
     }
 
+    private ThreadCache getThreadCache()
+    {
+        return _threadCacheSize > 0 ? _threadCache.get() : null;
+    }
+
+    private ThreadCache newThreadCache()
+    {
+        if (_threadCacheSize <= 0 || VirtualThreads.isVirtualThread())
+            return null;
+        // Threads come and go, for example when a thread pool shrinks,
+        // so reclaim the caches of the exited threads on the way.
+        releaseExitedThreadCaches();
+        ThreadCache cache = new ThreadCache(Thread.currentThread());
+        _threadCaches.offer(cache);
+        return cache;
+    }
+
+    private void releaseExitedThreadCaches()
+    {
+        for (ThreadCache cache : _threadCaches)
+        {
+            // Only one thread may remove, and so release, a cache.
+            if (!cache._thread.isAlive() && _threadCaches.remove(cache))
+                cache.release();
+        }
+    }
+
     public boolean removeAndRelease(RetainableByteBuffer buffer)
     {
         RetainableByteBuffer actual = buffer;
@@ -252,6 +328,8 @@ public class ArrayByteBufferPool implements ByteBufferPool
         if (entry == null)
         {
             bucket.recordNonPooled();
+            if (!_threadCaches.isEmpty())
+                releaseExitedThreadCaches();
             return;
         }
 
@@ -260,6 +338,7 @@ public class ArrayByteBufferPool implements ByteBufferPool
         Buffer pooledBuffer = new Buffer(byteBuffer, bucket, entry);
         if (entry.enable(pooledBuffer, false))
         {
+            bucket.recordIdle(1);
             checkMaxMemory(bucket, byteBuffer.isDirect());
             return;
         }
@@ -273,21 +352,22 @@ public class ArrayByteBufferPool implements ByteBufferPool
     {
         bucket.recordRelease();
 
-        RetainableByteBuffer buffer = entry.getPooled();
+        Buffer buffer = (Buffer)entry.getPooled();
         BufferUtil.reset(buffer.getByteBuffer());
 
-        // Release the buffer and check the memory 1% of the times.
-        int used = ((Buffer)buffer).use();
-        if (entry.release())
+        // Keep the buffer in the thread cache, unless it has been removed.
+        ThreadCache cache = getThreadCache();
+        if (cache != null && buffer._generation == bucket._generation && !entry.isTerminated())
         {
-            if (used % 100 == 0)
-               checkMaxMemory(bucket, buffer.isDirect());
+            if (cache.release(bucket, buffer))
+                checkMaxMemory(bucket, buffer.isDirect());
             return;
         }
 
-        // Cannot release, discard this buffer.
-        bucket.recordRemove();
-        entry.remove();
+        // Release the buffer and check the memory 1% of the times.
+        int used = buffer.use();
+        if (bucket.release(buffer) && used % 100 == 0)
+            checkMaxMemory(bucket, buffer.isDirect());
     }
 
     private boolean remove(RetainedBucket bucket, Pool.Entry<RetainableByteBuffer> entry)
@@ -300,12 +380,11 @@ public class ArrayByteBufferPool implements ByteBufferPool
     private void checkMaxMemory(RetainedBucket bucket, boolean direct)
     {
         long max = direct ? _maxDirectMemory : _maxHeapMemory;
-        if (max <= 0 || !_evictor.compareAndSet(false, true))
+        if (max <= 0 || getMemory(direct) <= max || !_evictor.compareAndSet(false, true))
             return;
         try
         {
-            long memory = getMemory(direct);
-            long excess = memory - max;
+            long excess = getMemory(direct) - max;
             if (excess > 0)
             {
                 bucket.recordEvict();
@@ -320,19 +399,37 @@ public class ArrayByteBufferPool implements ByteBufferPool
 
     private void evict(long excessMemory, boolean direct)
     {
+        // Evict from the least recently used buckets first.
         RetainedBucket[] buckets = direct ? _direct : _indirect;
-        int length = buckets.length;
-        int index = ThreadLocalRandom.current().nextInt(length);
-        for (int c = 0; c < length; ++c)
+        boolean[] visited = new boolean[buckets.length];
+        while (true)
         {
-            RetainedBucket bucket = buckets[index++];
-            if (index == length)
-                index = 0;
-
-            int evicted = bucket.evict();
-            excessMemory -= evicted;
-            if (excessMemory <= 0)
+            RetainedBucket bucket = null;
+            int index = -1;
+            for (int i = 0; i < buckets.length; i++)
+            {
+                RetainedBucket candidate = buckets[i];
+                if (visited[i] || candidate.getIdleCount() <= 0)
+                    continue;
+                if (bucket == null || candidate.getLastUsed() - bucket.getLastUsed() < 0)
+                {
+                    bucket = candidate;
+                    index = i;
+                }
+            }
+            if (bucket == null)
                 return;
+            visited[index] = true;
+
+            while (bucket.getIdleCount() > 0)
+            {
+                int evicted = bucket.evict();
+                if (evicted == 0)
+                    break;
+                excessMemory -= evicted;
+                if (excessMemory <= 0)
+                    return;
+            }
         }
     }
 
@@ -403,10 +500,7 @@ public class ArrayByteBufferPool implements ByteBufferPool
 
     private long getMemory(boolean direct)
     {
-        long size = 0;
-        for (RetainedBucket bucket : direct ? _direct : _indirect)
-            size += (long)bucket.getPool().getIdleCount() * bucket.getCapacity();
-        return size;
+        return direct ? _directMemory.sum() : _heapMemory.sum();
     }
 
     public long getAvailableDirectMemory()
@@ -422,6 +516,7 @@ public class ArrayByteBufferPool implements ByteBufferPool
     @ManagedOperation(value = "Clears this ByteBufferPool", impact = "ACTION")
     public void clear()
     {
+        releaseExitedThreadCaches();
         clearBuckets(_direct);
         clearBuckets(_indirect);
     }
@@ -442,11 +537,18 @@ public class ArrayByteBufferPool implements ByteBufferPool
         private final LongAdder _evicts = new LongAdder();
         private final LongAdder _removes = new LongAdder();
         private final LongAdder _releases = new LongAdder();
+        private final LongAdder _idle = new LongAdder();
         private final Pool<RetainableByteBuffer> _pool;
         private final int _capacity;
+        private final LongAdder _memory;
+        private final int _index;
+        private final boolean _directBuffers;
+        private volatile long _lastUsed = NanoTime.now();
+        private volatile int _generation;
 
-        private RetainedBucket(int capacity, int poolSize)
+        private RetainedBucket(int index, int capacity, int poolSize, boolean direct)
         {
+            _index = index;
             if (poolSize <= ConcurrentPool.OPTIMAL_MAX_SIZE)
                 _pool = new ConcurrentPool<>(ConcurrentPool.StrategyType.THREAD_ID, poolSize, e -> 1);
             else
@@ -455,6 +557,69 @@ public class ArrayByteBufferPool implements ByteBufferPool
                     new QueuedPool<>(poolSize - ConcurrentPool.OPTIMAL_MAX_SIZE)
                 );
             _capacity = capacity;
+            _memory = direct ? _directMemory : _heapMemory;
+            _directBuffers = direct;
+        }
+
+        /**
+         * <p>Accounts for pooled buffers that become idle, or are no longer idle.</p>
+         *
+         * @param count the number of buffers that became idle, negative if they are no longer idle
+         */
+        private void recordIdle(int count)
+        {
+            _idle.add(count);
+            _memory.add((long)count * _capacity);
+        }
+
+        /**
+         * @return an idle buffer of this bucket, now in use, or null if there is no idle buffer
+         */
+        private Buffer acquire()
+        {
+            Pool.Entry<RetainableByteBuffer> entry = _pool.acquire();
+            if (entry == null)
+                return null;
+            recordIdle(-1);
+            return (Buffer)entry.getPooled();
+        }
+
+        /**
+         * <p>Releases a buffer of this bucket, discarding it if it was removed or cleared while in use.</p>
+         *
+         * @param buffer the buffer to release
+         * @return whether the buffer is now idle in this bucket
+         */
+        private boolean release(Buffer buffer)
+        {
+            if (buffer._generation == _generation && buffer._entry.release())
+            {
+                recordIdle(1);
+                return true;
+            }
+
+            // Cannot release, discard this buffer.
+            recordRemove();
+            buffer._entry.remove();
+            return false;
+        }
+
+        private long getIdleCount()
+        {
+            return _idle.sum();
+        }
+
+        private void touch()
+        {
+            // Only update at millisecond granularity, to avoid writing the field on every acquire.
+            long now = NanoTime.now();
+            if (NanoTime.millisElapsed(_lastUsed, now) > 0)
+                _lastUsed = now;
+        }
+
+        private long getLastUsed()
+        {
+            return _lastUsed;
         }
 
         public void recordAcquire()
@@ -514,6 +679,7 @@ public class ArrayByteBufferPool implements ByteBufferPool
             if (entry == null)
                 return 0;
 
+            recordIdle(-1);
             recordRemove();
             entry.remove();
 
@@ -528,7 +694,16 @@ public class ArrayByteBufferPool implements ByteBufferPool
             _evicts.reset();
             _removes.reset();
             _releases.reset();
-            getPool().stream().forEach(Pool.Entry::remove);
+            // The in-use buffers are discarded when they are released,
+            // and the idle ones are acquired to be removed, so that they
+            // are accounted as they leave the pool.
+            _generation++;
+            Pool.Entry<RetainableByteBuffer> entry;
+            while ((entry = getPool().acquire()) != null)
+            {
+                recordIdle(-1);
+                entry.remove();
+            }
         }
 
         @Override
@@ -578,6 +753,121 @@ public class ArrayByteBufferPool implements ByteBufferPool
         }
     }
 
+    /**
+     * <p>The buffers cached by a platform thread, a stack for each bucket.</p>
+     * <p>The buffers in a cache are in use as far as their bucket is concerned.</p>
+     */
+    private class ThreadCache
+    {
+        private final Thread _thread;
+        private final Buffer[][] _direct = new Buffer[ArrayByteBufferPool.this._direct.length][];
+        private final Buffer[][] _indirect = new Buffer[ArrayByteBufferPool.this._indirect.length][];
+        private final int[] _directSizes = new int[_direct.length];
+        private final int[] _indirectSizes = new int[_indirect.length];
+
+        private ThreadCache(Thread thread)
+        {
+            _thread = thread;
+        }
+
+        private Buffer acquire(RetainedBucket bucket)
+        {
+            Buffer[] buffers = buffers(bucket);
+            int[] sizes = bucket._directBuffers ? _directSizes : _indirectSizes;
+            int size = sizes[bucket._index];
+            while (true)
+            {
+                if (size == 0)
+                {
+                    // Refill half of the cache from the bucket.
+                    int refill = Math.max(1, buffers.length / 2);
+                    while (size < refill)
+                    {
+                        Buffer buffer = bucket.acquire();
+                        if (buffer == null)
+                            break;
+                        buffers[size++] = buffer;
+                    }
+                    if (size == 0)
+                    {
+                        sizes[bucket._index] = 0;
+                        return null;
+                    }
+                }
+
+                Buffer buffer = buffers[--size];
+                buffers[size] = null;
+                if (buffer._generation == bucket._generation)
+                {
+                    sizes[bucket._index] = size;
+                    return buffer;
+                }
+
+                // The bucket was cleared, discard the buffer.
+                bucket.release(buffer);
+            }
+        }
+
+        /**
+         * @param bucket the bucket of the buffer
+         * @param buffer the buffer to cache
+         * @return whether buffers were spilled to the bucket
+         */
+        private boolean release(RetainedBucket bucket, Buffer buffer)
+        {
+            Buffer[] buffers = buffers(bucket);
+            int[] sizes = bucket._directBuffers ? _directSizes : _indirectSizes;
+            int size = sizes[bucket._index];
+            boolean spilled = size == buffers.length;
+            if (spilled)
+            {
+                // Spill the least recently used half of the cache to the bucket.
+                int spill = Math.max(1, buffers.length / 2);
+                for (int i = 0; i < spill; i++)
+                {
+                    bucket.release(buffers[i]);
+                }
+                System.arraycopy(buffers, spill, buffers, 0, size - spill);
+                Arrays.fill(buffers, size - spill, size, null);
+                size -= spill;
+            }
+            buffers[size++] = buffer;
+            sizes[bucket._index] = size;
+            return spilled;
+        }
+
+        /**
+         * <p>Releases all the cached buffers to their buckets.</p>
+         */
+        private void release()
+        {
+            release(ArrayByteBufferPool.this._direct, _direct, _directSizes);
+            release(ArrayByteBufferPool.this._indirect, _indirect, _indirectSizes);
+        }
+
+        private void release(RetainedBucket[] buckets, Buffer[][] buffers, int[] sizes)
+        {
+            for (int i = 0; i < buckets.length; i++)
+            {
+                for (int j = 0; j < sizes[i]; j++)
+                {
+                    buckets[i].release(buffers[i][j]);
+                    buffers[i][j] = null;
+                }
+                sizes[i] = 0;
+            }
+        }
+
+        private Buffer[] buffers(RetainedBucket bucket)
+        {
+            Buffer[][] buffers = bucket._directBuffers ? _direct : _indirect;
+            Buffer[] result = buffers[bucket._index];
+            if (result == null)
+                buffers[bucket._index] = result = new Buffer[_threadCacheSize];
+            return result;
+        }
+    }
+
     private class ReservedBuffer extends AbstractRetainableByteBuffer
     {
         private final RetainedBucket _bucket;
@@ -610,6 +900,7 @@ public class ArrayByteBufferPool implements ByteBufferPool
     {
         private final RetainedBucket _bucket;
         private final Pool.Entry<RetainableByteBuffer> _entry;
+        private final int _generation;
         private int _usages;
 
         private Buffer(ByteBuffer buffer, RetainedBucket bucket, Pool.Entry<RetainableByteBuffer> entry)
@@ -617,6 +908,7 @@ public class ArrayByteBufferPool implements ByteBufferPool
             super(buffer);
             _bucket = Objects.requireNonNull(bucket);
             _entry = Objects.requireNonNull(entry);
+            _generation = bucket._generation;
         }
 
         @Override
@@ -641,4 +933,45 @@ public class ArrayByteBufferPool implements ByteBufferPool
         }
     }
 
+    /**
+     * <p>A variant of {@link ArrayByteBufferPool} whose bucket capacities are powers of two,
+     * so that the number of buckets grows with the logarithm of the max capacity, rather
+     * than linearly like with a capacity factor.</p>
+     * <p>A buffer may be up to twice as large as requested, but a pool with a max capacity
+     * of several megabytes only has a few tens of buckets, and its idle large buffers are
+     * the first to be evicted when they are not used.</p>
+     */
+    public static class Quadratic extends ArrayByteBufferPool
+    {
+        public Quadratic()
+        {
+            this(0, -1, Integer.MAX_VALUE);
+        }
+
+        /**
+         * @param minCapacity the minimum ByteBuffer capacity
+         * @param maxCapacity the maximum ByteBuffer capacity, a power of two
+         * @param maxBucketSize the maximum number of ByteBuffers for each bucket
+         */
+        public Quadratic(int minCapacity, int maxCapacity, int maxBucketSize)
+        {
+            this(minCapacity, maxCapacity, maxBucketSize, 0L, 0L);
+        }
+
+        /**
+         * @param minCapacity the minimum ByteBuffer capacity
+         * @param maxCapacity the maximum ByteBuffer capacity, a power of two
+         * @param maxBucketSize the maximum number of ByteBuffers for each bucket
+         * @param maxHeapMemory the max heap memory in bytes, -1 for unlimited memory or 0 to use default heuristic
+         * @param maxDirectMemory the max direct memory in bytes, -1 for unlimited memory or 0 to use default heuristic
+         */
+        public Quadratic(int minCapacity, int maxCapacity, int maxBucketSize, long maxHeapMemory, long maxDirectMemory)
+        {
+            super(minCapacity, -1, maxCapacity, maxBucketSize, maxHeapMemory, maxDirectMemory,
+                c -> 32 - Integer.numberOfLeadingZeros(c - 1),
+                i -> 1 << i);
+            if (maxCapacity > 0 && Integer.bitCount(maxCapacity) != 1)
+                throw new IllegalArgumentException(String.format("The maxCapacity(%d) must be a power of two", maxCapacity));
+        }
+    }
 }
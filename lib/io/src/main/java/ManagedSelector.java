@@ -24,27 +24,30 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import ab.squirrel.util.IO;
+import ab.squirrel.util.NanoTime;
 import ab.squirrel.util.annotation.ManagedAttribute;
 import ab.squirrel.util.annotation.ManagedOperation;
 import ab.squirrel.util.component.ContainerLifeCycle;
+import ab.squirrel.util.statistic.HistogramStatistic;
 import ab.squirrel.util.statistic.SampleStatistic;
-import ab.squirrel.util.thread.AutoLock;
 import ab.squirrel.util.thread.ExecutionStrategy;
 import ab.squirrel.util.thread.Scheduler;
 import ab.squirrel.util.thread.strategy.AdaptiveExecutionStrategy;
@@ -76,16 +79,17 @@ public class ManagedSelector extends ContainerLifeCycle
         }
     }
 
-    private final AutoLock _lock = new AutoLock();
     private final AtomicBoolean _started = new AtomicBoolean(false);
-    private boolean _selecting;
+    private final AtomicBoolean _selecting = new AtomicBoolean();
     private final SelectorManager _selectorManager;
     private final int _id;
     private final ExecutionStrategy _strategy;
     private Selector _selector;
-    private Deque<SelectorUpdate> _updates = new ArrayDeque<>();
-    private Deque<SelectorUpdate> _updateable = new ArrayDeque<>();
+    private final UpdateQueue _updates = new UpdateQueue(1024);
     private final SampleStatistic _keyStats = new SampleStatistic();
+    private final SampleStatistic _updateStats = new SampleStatistic();
+    private final HistogramStatistic _loopTimeStats = new HistogramStatistic();
+    private final HistogramStatistic _updateWaitStats = new HistogramStatistic();
 
     public ManagedSelector(SelectorManager selectorManager, int id)
     {
@@ -168,10 +172,108 @@ public class ManagedSelector extends ContainerLifeCycle
         return _keyStats.getCount();
     }
 
+    @ManagedAttribute(value = "Total number of selected keys", readonly = true)
+    public long getTotalSelectedKeys()
+    {
+        return _keyStats.getTotal();
+    }
+
+    @ManagedAttribute(value = "Mean time of a select loop iteration, between two select() calls (in ns)", readonly = true)
+    public double getSelectLoopTimeMean()
+    {
+        return _loopTimeStats.getMean();
+    }
+
+    @ManagedAttribute(value = "99th percentile of the time of a select loop iteration (in ns)", readonly = true)
+    public long getSelectLoopTimeP99()
+    {
+        return _loopTimeStats.getPercentile(99);
+    }
+
+    @ManagedAttribute(value = "Maximum time of a select loop iteration (in ns)", readonly = true)
+    public long getSelectLoopTimeMax()
+    {
+        return _loopTimeStats.getMax();
+    }
+
+    /**
+     * <p>Returns the histogram of the time of the select loop iterations, in nanoseconds.</p>
+     * <p>An iteration starts when {@link Selector#select()} returns, and ends when it is
+     * called again, so it includes the processing of the selected keys and of the updates,
+     * and the tasks that the execution strategy runs on the selector thread.</p>
+     *
+     * @return the histogram of the time of the select loop iterations
+     */
+    public HistogramStatistic getSelectLoopTimeHistogram()
+    {
+        return _loopTimeStats;
+    }
+
+    @ManagedAttribute(value = "Number of updates waiting to be processed", readonly = true)
+    public int getUpdatesQueued()
+    {
+        return getActionSize();
+    }
+
+    @ManagedAttribute(value = "Average number of updates processed per select loop iteration", readonly = true)
+    public double getAverageUpdates()
+    {
+        return _updateStats.getMean();
+    }
+
+    @ManagedAttribute(value = "Maximum number of updates processed in a select loop iteration", readonly = true)
+    public long getMaxUpdates()
+    {
+        return _updateStats.getMax();
+    }
+
+    @ManagedAttribute(value = "Mean time the oldest update waited to be processed (in ns)", readonly = true)
+    public double getUpdateWaitTimeMean()
+    {
+        return _updateWaitStats.getMean();
+    }
+
+    @ManagedAttribute(value = "Maximum time an update waited to be processed (in ns)", readonly = true)
+    public long getUpdateWaitTimeMax()
+    {
+        return _updateWaitStats.getMax();
+    }
+
+    /**
+     * @return the histogram of the time the oldest update of each select loop iteration waited, in nanoseconds
+     */
+    public HistogramStatistic getUpdateWaitTimeHistogram()
+    {
+        return _updateWaitStats;
+    }
+
+    @ManagedAttribute(value = "Number of tasks run by the selector thread in produce-consume mode", readonly = true)
+    public long getPCTasksConsumed()
+    {
+        return _strategy instanceof AdaptiveExecutionStrategy adaptive ? adaptive.getPCTasksConsumed() : 0;
+    }
+
+    @ManagedAttribute(value = "Number of tasks run by the selector thread in execute-produce-consume mode", readonly = true)
+    public long getEPCTasksConsumed()
+    {
+        return _strategy instanceof AdaptiveExecutionStrategy adaptive ? adaptive.getEPCTasksConsumed() : 0;
+    }
+
+    @ManagedAttribute(value = "Number of tasks executed by other threads in produce-execute-consume mode", readonly = true)
+    public long getPECTasksExecuted()
+    {
+        return _strategy instanceof AdaptiveExecutionStrategy adaptive ? adaptive.getPECTasksExecuted() : 0;
+    }
+
     @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
     public void resetStats()
     {
         _keyStats.reset();
+        _updateStats.reset();
+        _loopTimeStats.reset();
+        _updateWaitStats.reset();
+        if (_strategy instanceof AdaptiveExecutionStrategy adaptive)
+            adaptive.reset();
     }
 
     protected int nioSelect(Selector selector, boolean now) throws IOException
@@ -281,25 +383,20 @@ public class ManagedSelector extends ContainerLifeCycle
         if (LOG.isDebugEnabled())
             LOG.debug("Queued change lazy={} {} on {}", lazy, update, this);
 
-        Selector selector = null;
-        try (AutoLock l = _lock.lock())
-        {
-            _updates.offer(update);
+        _updates.offer(update);
 
-            if (_selecting && !lazy)
+        // Only the first submitter after the selector starts
+        // selecting wakes it up, the others see it already woken.
+        if (!lazy && _selecting.get() && _selecting.compareAndSet(true, false))
+        {
+            Selector selector = _selector;
+            if (selector != null)
             {
-                selector = _selector;
-                // To avoid the extra select wakeup.
-                _selecting = false;
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Wakeup on submit {}", this);
+                selector.wakeup();
             }
         }
-
-        if (selector != null)
-        {
-            if (LOG.isDebugEnabled())
-                LOG.debug("Wakeup on submit {}", this);
-            selector.wakeup();
-        }
     }
 
     private void wakeup()
@@ -307,18 +404,12 @@ public class ManagedSelector extends ContainerLifeCycle
         if (LOG.isDebugEnabled())
             LOG.debug("Wakeup {}", this);
 
-        Selector selector = null;
-        try (AutoLock l = _lock.lock())
+        if (_selecting.get() && _selecting.compareAndSet(true, false))
         {
-            if (_selecting)
-            {
-                selector = _selector;
-                _selecting = false;
-            }
+            Selector selector = _selector;
+            if (selector != null)
+                selector.wakeup();
         }
-
-        if (selector != null)
-            selector.wakeup();
     }
 
     private void execute(Runnable task)
@@ -412,10 +503,7 @@ public class ManagedSelector extends ContainerLifeCycle
 
     private int getActionSize()
     {
-        try (AutoLock l = _lock.lock())
-        {
-            return _updates.size();
-        }
+        return _updates.size();
     }
 
     static int safeReadyOps(SelectionKey selectionKey)
@@ -477,6 +565,7 @@ public class ManagedSelector extends ContainerLifeCycle
     {
         private Set<SelectionKey> _keys = Collections.emptySet();
         private Iterator<SelectionKey> _cursor = Collections.emptyIterator();
+        private long _selectedNanoTime;
 
         @Override
         public Runnable produce()
@@ -491,6 +580,9 @@ public class ManagedSelector extends ContainerLifeCycle
 
                 updateKeys();
 
+                if (_selectedNanoTime != 0)
+                    _loopTimeStats.record(NanoTime.since(_selectedNanoTime));
+
                 if (!select())
                     return null;
             }
@@ -498,24 +590,28 @@ public class ManagedSelector extends ContainerLifeCycle
 
         private void processUpdates()
         {
-            try (AutoLock l = _lock.lock())
+            // Only process the updates queued so far, those submitted
+            // while processing are processed in the next iteration.
+            int processing = _updates.size();
+            long queued = _updates.takeNanoTime();
+            if (processing > 0)
             {
-                Deque<SelectorUpdate> updates = _updates;
-                _updates = _updateable;
-                _updateable = updates;
+                _updateStats.record(processing);
+                if (queued != 0)
+                    _updateWaitStats.record(NanoTime.since(queued));
             }
 
             if (LOG.isDebugEnabled())
-                LOG.debug("updateable {}", _updateable.size());
+                LOG.debug("updateable {}", processing);
 
             Selector selector = _selector;
-            while (true)
+            while (processing-- > 0)
             {
-                SelectorUpdate update = _updateable.pollFirst();
-                if (update == null)
-                    break;
                 if (selector == null)
                     break;
+                SelectorUpdate update = _updates.poll();
+                if (update == null)
+                    break;
                 try
                 {
                     if (LOG.isDebugEnabled())
@@ -528,19 +624,16 @@ public class ManagedSelector extends ContainerLifeCycle
                 }
             }
 
-            int updates;
-            try (AutoLock l = _lock.lock())
-            {
-                updates = _updates.size();
-                _selecting = updates == 0;
-                if (_selecting)
-                    selector = null;
-            }
+            // Publish that the selector is about to select before checking
+            // the queue, so that either this thread sees the updates submitted
+            // concurrently, or their submitter sees it selecting and wakes it up.
+            _selecting.set(true);
+            int updates = _updates.size();
 
             if (LOG.isDebugEnabled())
                 LOG.debug("updates {}", updates);
 
-            if (selector != null)
+            if (updates > 0 && _selecting.compareAndSet(true, false) && selector != null)
             {
                 if (LOG.isDebugEnabled())
                     LOG.debug("wakeup on updates {}", this);
@@ -558,6 +651,7 @@ public class ManagedSelector extends ContainerLifeCycle
                     if (LOG.isDebugEnabled())
                         LOG.debug("Selector {} waiting with {} keys", selector, selector.keys().size());
                     int selected = ManagedSelector.this.select(selector);
+                    _selectedNanoTime = NanoTime.now();
                     // The selector may have been recreated.
                     selector = _selector;
                     if (selector != null)
@@ -565,13 +659,9 @@ public class ManagedSelector extends ContainerLifeCycle
                         if (LOG.isDebugEnabled())
                             LOG.debug("Selector {} woken up from select, {}/{}/{} selected", selector, selected, selector.selectedKeys().size(), selector.keys().size());
 
-                        int updates;
-                        try (AutoLock l = _lock.lock())
-                        {
-                            // finished selecting
-                            _selecting = false;
-                            updates = _updates.size();
-                        }
+                        // finished selecting
+                        _selecting.set(false);
+                        int updates = _updates.size();
 
                         _keys = selector.selectedKeys();
                         int selectedKeys = _keys.size();
@@ -686,6 +776,100 @@ public class ManagedSelector extends ContainerLifeCycle
         void update(Selector selector);
     }
 
+    /**
+     * <p>The queue of the {@link SelectorUpdate}s, with many producers and the selector thread as single consumer.</p>
+     * <p>Updates are offered to a bounded ring without locking nor allocation. When the ring is full,
+     * updates are offered to an unbounded overflow queue instead, and keep going there until the
+     * overflow queue has been drained, so that updates are still polled in the order they were offered.</p>
+     */
+    private static final class UpdateQueue
+    {
+        private final AtomicReferenceArray<SelectorUpdate> _ring;
+        private final int _mask;
+        private final AtomicLong _tail = new AtomicLong();
+        private volatile long _head;
+        private final ConcurrentLinkedQueue<SelectorUpdate> _overflow = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger _overflowSize = new AtomicInteger();
+        private volatile long _nanoTime;
+
+        private UpdateQueue(int capacity)
+        {
+            if (Integer.bitCount(capacity) != 1)
+                throw new IllegalArgumentException("Capacity not a power of 2: " + capacity);
+            _ring = new AtomicReferenceArray<>(capacity);
+            _mask = capacity - 1;
+        }
+
+        private void offer(SelectorUpdate update)
+        {
+            // Racy, but only used to measure how long updates wait.
+            if (_nanoTime == 0)
+                _nanoTime = NanoTime.now();
+
+            if (_overflowSize.get() == 0)
+            {
+                while (true)
+                {
+                    long tail = _tail.get();
+                    if (tail - _head > _mask)
+                        break;
+                    if (_tail.compareAndSet(tail, tail + 1))
+                    {
+                        _ring.setRelease((int)tail & _mask, update);
+                        return;
+                    }
+                }
+            }
+
+            _overflowSize.incrementAndGet();
+            _overflow.offer(update);
+        }
+
+        /**
+         * @return the oldest update, or null if there are none or if the oldest is still being offered
+         */
+        private SelectorUpdate poll()
+        {
+            long head = _head;
+            if (head != _tail.get())
+            {
+                int index = (int)head & _mask;
+                SelectorUpdate update = _ring.getAcquire(index);
+                if (update == null)
+                    return null;
+                _ring.setPlain(index, null);
+                // Releases the slot to the producers.
+                _head = head + 1;
+                return update;
+            }
+
+            if (_overflowSize.get() > 0)
+            {
+                SelectorUpdate update = _overflow.poll();
+                if (update != null)
+                    _overflowSize.decrementAndGet();
+                return update;
+            }
+            return null;
+        }
+
+        private int size()
+        {
+            long head = _head;
+            return (int)(_tail.get() - head) + _overflowSize.get();
+        }
+
+        /**
+         * @return the time at which the first update since the last call was offered, or 0
+         */
+        private long takeNanoTime()
+        {
+            long nanoTime = _nanoTime;
+            _nanoTime = 0;
+            return nanoTime;
+        }
+    }
+
     private class Start implements SelectorUpdate
     {
         private final CountDownLatch _started = new CountDownLatch(1);
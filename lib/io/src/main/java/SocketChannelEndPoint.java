@@ -31,11 +31,29 @@ public class SocketChannelEndPoint extends AbstractChannelEndPoint
 {
     private static final Logger LOG = LoggerFactory.getLogger(SocketChannelEndPoint.class);
 
+    private WriteCoalescer _writeCoalescer;
+
     public SocketChannelEndPoint(SocketChannel channel, ManagedSelector selector, SelectionKey key, Scheduler scheduler)
     {
         super(scheduler, channel, selector, key);
     }
 
+    /**
+     * @return the coalescer of the small buffers of gathering writes, or null
+     */
+    public WriteCoalescer getWriteCoalescer()
+    {
+        return _writeCoalescer;
+    }
+
+    /**
+     * @param writeCoalescer the coalescer of the small buffers of gathering writes, or null to write the buffers as they are
+     */
+    public void setWriteCoalescer(WriteCoalescer writeCoalescer)
+    {
+        _writeCoalescer = writeCoalescer;
+    }
+
     @Override
     public SocketChannel getChannel()
     {
@@ -105,7 +123,8 @@ public class SocketChannelEndPoint extends AbstractChannelEndPoint
     @Override
     public boolean flush(ByteBuffer... buffers) throws IOException
     {
-        long flushed = getChannel().write(buffers);
+        WriteCoalescer coalescer = _writeCoalescer;
+        long flushed = coalescer == null || buffers.length < 2 ? getChannel().write(buffers) : coalescer.write(getChannel(), buffers);
         if (LOG.isDebugEnabled())
             LOG.debug("flushed {} {}", flushed, this);
 
@@ -0,0 +1,360 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.io;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import ab.squirrel.util.annotation.ManagedAttribute;
+import ab.squirrel.util.annotation.ManagedObject;
+import ab.squirrel.util.annotation.ManagedOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link ByteBufferPool} that wraps another pool to find the buffers that are never released.</p>
+ * <p>A sampled fraction of the acquired buffers is tracked: the stack trace of the acquisition
+ * is recorded, along with the stack traces of the last retains and releases of the buffer.
+ * A tracked buffer that is garbage collected while still retained has leaked: it is reported
+ * with its history in the log, and kept in a bounded list of leaks that can be
+ * {@link #dump() dumped}, together with the tracked buffers still in use.</p>
+ * <p>Tracking is expensive, and is meant to be enabled to investigate leaks, for example
+ * with a small sampling ratio in a long-running instance whose direct memory slowly grows.</p>
+ */
+@ManagedObject("A ByteBufferPool that tracks buffer leaks")
+public class TrackingByteBufferPool implements ByteBufferPool
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TrackingByteBufferPool.class);
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final ByteBufferPool _wrapped;
+    private final double _sampleRatio;
+    private final AtomicLong _ids = new AtomicLong();
+    private final Map<Long, Tracking> _tracked = new ConcurrentHashMap<>();
+    private final Deque<String> _leaks = new ConcurrentLinkedDeque<>();
+    private final LongAdder _leaked = new LongAdder();
+    private final LongAdder _leakedBytes = new LongAdder();
+    private int _maxHistory = 16;
+    private int _maxLeaks = 64;
+
+    /**
+     * @param wrapped the pool to track
+     */
+    public TrackingByteBufferPool(ByteBufferPool wrapped)
+    {
+        this(wrapped, 1.0D);
+    }
+
+    /**
+     * @param wrapped the pool to track
+     * @param sampleRatio the fraction, between 0 and 1, of the acquired buffers to track
+     */
+    public TrackingByteBufferPool(ByteBufferPool wrapped, double sampleRatio)
+    {
+        if (sampleRatio < 0 || sampleRatio > 1)
+            throw new IllegalArgumentException("Invalid sample ratio " + sampleRatio);
+        _wrapped = Objects.requireNonNull(wrapped);
+        _sampleRatio = sampleRatio;
+    }
+
+    /**
+     * @return the tracked pool
+     */
+    public ByteBufferPool getWrapped()
+    {
+        return _wrapped;
+    }
+
+    @ManagedAttribute("The fraction of the acquired buffers that are tracked")
+    public double getSampleRatio()
+    {
+        return _sampleRatio;
+    }
+
+    @ManagedAttribute("The max number of retains and releases recorded for each tracked buffer")
+    public int getMaxHistory()
+    {
+        return _maxHistory;
+    }
+
+    /**
+     * @param maxHistory the max number of retains and releases recorded for each tracked buffer
+     */
+    public void setMaxHistory(int maxHistory)
+    {
+        _maxHistory = maxHistory;
+    }
+
+    @ManagedAttribute("The max number of leaks kept for the dump")
+    public int getMaxLeaks()
+    {
+        return _maxLeaks;
+    }
+
+    /**
+     * @param maxLeaks the max number of leaks kept for the dump
+     */
+    public void setMaxLeaks(int maxLeaks)
+    {
+        _maxLeaks = maxLeaks;
+    }
+
+    @ManagedAttribute("The number of tracked buffers in use")
+    public int getTrackedCount()
+    {
+        return _tracked.size();
+    }
+
+    @ManagedAttribute("The number of tracked buffers garbage collected while retained")
+    public long getLeakedCount()
+    {
+        return _leaked.longValue();
+    }
+
+    @ManagedAttribute("The capacity of the tracked buffers garbage collected while retained")
+    public long getLeakedBytes()
+    {
+        return _leakedBytes.longValue();
+    }
+
+    @Override
+    public RetainableByteBuffer acquire(int size, boolean direct)
+    {
+        RetainableByteBuffer buffer = _wrapped.acquire(size, direct);
+        if (!buffer.canRetain() || !sample())
+            return buffer;
+
+        Tracking tracking = new Tracking(_ids.incrementAndGet(), buffer, _maxHistory);
+        TrackedBuffer tracked = new TrackedBuffer(buffer, tracking);
+        tracking._cleanable = CLEANER.register(tracked, tracking);
+        _tracked.put(tracking._id, tracking);
+        return tracked;
+    }
+
+    private boolean sample()
+    {
+        return _sampleRatio >= 1 || ThreadLocalRandom.current().nextDouble() < _sampleRatio;
+    }
+
+    @Override
+    public boolean removeAndRelease(RetainableByteBuffer buffer)
+    {
+        if (buffer instanceof TrackedBuffer tracked)
+        {
+            Tracking tracking = tracked._tracking;
+            tracking.record("Removed and released");
+            boolean released = _wrapped.removeAndRelease(tracked._delegate);
+            if (tracking._references.decrementAndGet() == 0)
+                untrack(tracking);
+            return released;
+        }
+        return _wrapped.removeAndRelease(buffer);
+    }
+
+    @Override
+    public void clear()
+    {
+        _wrapped.clear();
+    }
+
+    private void untrack(Tracking tracking)
+    {
+        tracking._released = true;
+        _tracked.remove(tracking._id);
+        // Unregisters from the Cleaner, the action is a no-operation once released.
+        tracking._cleanable.clean();
+    }
+
+    private void leaked(Tracking tracking)
+    {
+        _tracked.remove(tracking._id);
+        _leaked.increment();
+        _leakedBytes.add(tracking._capacity);
+
+        String leak = tracking.describe("Leaked");
+        LOG.warn(leak);
+        _leaks.addLast(leak);
+        while (_leaks.size() > _maxLeaks)
+        {
+            _leaks.pollFirst();
+        }
+    }
+
+    /**
+     * @return a description of the tracked buffers in use, oldest first, and of the last leaks
+     */
+    @ManagedOperation(value = "Dumps the tracked buffers in use and the leaked buffers", impact = "INFO")
+    public String dump()
+    {
+        List<Tracking> inUse = new ArrayList<>(_tracked.values());
+        inUse.sort(Comparator.comparingLong(tracking -> tracking._id));
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%s: %d tracked in use, %d leaked (%d bytes)%n", this, inUse.size(), getLeakedCount(), getLeakedBytes()));
+        for (Tracking tracking : inUse)
+        {
+            builder.append(tracking.describe("In use"));
+        }
+        for (String leak : _leaks)
+        {
+            builder.append(leak);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * <p>Clears the leaks kept for the dump, and the leak counts.</p>
+     */
+    @ManagedOperation(value = "Clears the leaked buffers", impact = "ACTION")
+    public void clearLeaks()
+    {
+        _leaks.clear();
+        _leaked.reset();
+        _leakedBytes.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{ratio=%.3f,%s}", getClass().getSimpleName(), hashCode(), _sampleRatio, _wrapped);
+    }
+
+    /**
+     * <p>The tracking state of a buffer, which must not reference the {@link TrackedBuffer},
+     * so that it is the {@link Cleaner} action run when the buffer is garbage collected.</p>
+     */
+    private class Tracking implements Runnable
+    {
+        private final long _id;
+        private final int _capacity;
+        private final boolean _direct;
+        private final Instant _acquired = Instant.now();
+        private final Throwable _acquirer;
+        private final Deque<Throwable> _history = new ConcurrentLinkedDeque<>();
+        private final int _maxHistory;
+        private final AtomicInteger _references = new AtomicInteger(1);
+        private volatile boolean _released;
+        private Cleaner.Cleanable _cleanable;
+
+        private Tracking(long id, RetainableByteBuffer buffer, int maxHistory)
+        {
+            _id = id;
+            _capacity = buffer.capacity();
+            _direct = buffer.isDirect();
+            _acquirer = new Throwable("Acquired by " + Thread.currentThread().getName());
+            _maxHistory = maxHistory;
+        }
+
+        private void record(String event)
+        {
+            if (_maxHistory <= 0)
+                return;
+            _history.addLast(new Throwable(event + " by " + Thread.currentThread().getName() + " at " + Instant.now()));
+            while (_history.size() > _maxHistory)
+            {
+                _history.pollFirst();
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            if (!_released)
+                leaked(this);
+        }
+
+        private String describe(String state)
+        {
+            StringWriter writer = new StringWriter();
+            PrintWriter printer = new PrintWriter(writer);
+            printer.printf("%s buffer #%d capacity=%d direct=%b references=%d acquired=%s%n", state, _id, _capacity, _direct, _references.get(), _acquired);
+            _acquirer.printStackTrace(printer);
+            for (Throwable event : _history)
+            {
+                event.printStackTrace(printer);
+            }
+            printer.flush();
+            return writer.toString();
+        }
+    }
+
+    private class TrackedBuffer implements RetainableByteBuffer
+    {
+        private final RetainableByteBuffer _delegate;
+        private final Tracking _tracking;
+
+        private TrackedBuffer(RetainableByteBuffer delegate, Tracking tracking)
+        {
+            _delegate = delegate;
+            _tracking = tracking;
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer()
+        {
+            return _delegate.getByteBuffer();
+        }
+
+        @Override
+        public boolean isRetained()
+        {
+            return _delegate.isRetained();
+        }
+
+        @Override
+        public boolean canRetain()
+        {
+            return _delegate.canRetain();
+        }
+
+        @Override
+        public void retain()
+        {
+            _delegate.retain();
+            _tracking._references.incrementAndGet();
+            _tracking.record("Retained");
+        }
+
+        @Override
+        public boolean release()
+        {
+            _tracking.record("Released");
+            boolean released = _delegate.release();
+            if (_tracking._references.decrementAndGet() == 0)
+                untrack(_tracking);
+            return released;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x{#%d,%s}", getClass().getSimpleName(), hashCode(), _tracking._id, _delegate);
+        }
+    }
+}
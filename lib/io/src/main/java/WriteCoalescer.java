@@ -0,0 +1,219 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import ab.squirrel.util.annotation.ManagedAttribute;
+import ab.squirrel.util.annotation.ManagedObject;
+import ab.squirrel.util.annotation.ManagedOperation;
+
+/**
+ * <p>Coalesces adjacent small buffers of a gathering write.</p>
+ * <p>A gathering write of many small buffers, such as the chunks of a chunked response
+ * with their chunk headers, passes one I/O vector per buffer to the system call, and each
+ * small heap buffer is copied to a temporary direct buffer by the JVM.
+ * This class copies each run of two or more adjacent buffers smaller than the
+ * {@link #getThreshold() threshold} into a single pooled direct buffer, while the larger buffers
+ * are still written as they are, without copy. A write of few or large buffers is not changed.</p>
+ * <p>The given buffers are consumed by the number of bytes written, like
+ * {@link GatheringByteChannel#write(ByteBuffer[])} does, so the pooled buffer is released
+ * as soon as the write returns, even if the write is partial.</p>
+ * <p>An instance is stateless apart from its statistics, and may be shared by the endpoints of a connector.</p>
+ */
+@ManagedObject("Coalesces adjacent small buffers of gathering writes")
+public class WriteCoalescer
+{
+    private final LongAdder _writes = new LongAdder();
+    private final LongAdder _coalescedWrites = new LongAdder();
+    private final LongAdder _coalescedBuffers = new LongAdder();
+    private final LongAdder _coalescedBytes = new LongAdder();
+    private final ByteBufferPool _bufferPool;
+    private final int _threshold;
+    private final int _capacity;
+
+    /**
+     * @param bufferPool the pool of the buffers into which small buffers are copied
+     */
+    public WriteCoalescer(ByteBufferPool bufferPool)
+    {
+        this(bufferPool, 1024, 16384);
+    }
+
+    /**
+     * @param bufferPool the pool of the buffers into which small buffers are copied
+     * @param threshold the size below which a buffer is coalesced with its adjacent small buffers
+     * @param capacity the capacity of the buffer into which small buffers are copied
+     */
+    public WriteCoalescer(ByteBufferPool bufferPool, int threshold, int capacity)
+    {
+        if (threshold <= 0 || capacity < 2 * threshold)
+            throw new IllegalArgumentException("Invalid threshold " + threshold + " for capacity " + capacity);
+        _bufferPool = Objects.requireNonNull(bufferPool);
+        _threshold = threshold;
+        _capacity = capacity;
+    }
+
+    @ManagedAttribute("The size below which buffers are coalesced")
+    public int getThreshold()
+    {
+        return _threshold;
+    }
+
+    @ManagedAttribute("The capacity of the buffers into which small buffers are copied")
+    public int getCapacity()
+    {
+        return _capacity;
+    }
+
+    @ManagedAttribute("The number of gathering writes")
+    public long getWrites()
+    {
+        return _writes.longValue();
+    }
+
+    @ManagedAttribute("The number of gathering writes whose buffers were coalesced")
+    public long getCoalescedWrites()
+    {
+        return _coalescedWrites.longValue();
+    }
+
+    @ManagedAttribute("The number of buffers saved from gathering writes by coalescing")
+    public long getCoalescedBuffers()
+    {
+        return _coalescedBuffers.longValue();
+    }
+
+    @ManagedAttribute("The number of bytes copied to coalesce buffers")
+    public long getCoalescedBytes()
+    {
+        return _coalescedBytes.longValue();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void reset()
+    {
+        _writes.reset();
+        _coalescedWrites.reset();
+        _coalescedBuffers.reset();
+        _coalescedBytes.reset();
+    }
+
+    /**
+     * <p>Writes the given buffers to the given channel, coalescing the adjacent small buffers.</p>
+     *
+     * @param channel the channel to write to
+     * @param buffers the buffers to write
+     * @return the number of bytes written
+     * @throws IOException if the write fails
+     */
+    public long write(GatheringByteChannel channel, ByteBuffer[] buffers) throws IOException
+    {
+        _writes.increment();
+        if (!isCoalescable(buffers))
+            return channel.write(buffers);
+
+        RetainableByteBuffer aggregate = _bufferPool.acquire(_capacity, true);
+        try
+        {
+            ByteBuffer buffer = aggregate.getByteBuffer();
+            buffer.limit(buffer.capacity());
+
+            // The buffers to write, and the index of the first
+            // of the given buffers that each of them represents.
+            ByteBuffer[] gather = new ByteBuffer[buffers.length];
+            int[] firsts = new int[buffers.length + 1];
+            int count = 0;
+            int offset = 0;
+            int i = 0;
+            while (i < buffers.length)
+            {
+                int end = i;
+                int length = 0;
+                while (end < buffers.length)
+                {
+                    int remaining = buffers[end].remaining();
+                    if (remaining >= _threshold || offset + length + remaining > buffer.limit())
+                        break;
+                    length += remaining;
+                    ++end;
+                }
+
+                firsts[count] = i;
+                if (end - i > 1)
+                {
+                    for (int j = i; j < end; j++)
+                    {
+                        ByteBuffer small = buffers[j];
+                        buffer.put(offset, small, small.position(), small.remaining());
+                        offset += small.remaining();
+                    }
+                    gather[count++] = buffer.slice(offset - length, length);
+                    _coalescedBuffers.add(end - i - 1);
+                    _coalescedBytes.add(length);
+                    i = end;
+                }
+                else
+                {
+                    gather[count++] = buffers[i++];
+                }
+            }
+            firsts[count] = buffers.length;
+            _coalescedWrites.increment();
+
+            long written = channel.write(gather, 0, count);
+
+            // The buffers written as they are have been consumed by the
+            // channel, consume the small buffers copied to a slice.
+            for (int g = 0; g < count; g++)
+            {
+                if (firsts[g + 1] - firsts[g] == 1)
+                    continue;
+                int consumed = gather[g].position();
+                for (int j = firsts[g]; j < firsts[g + 1] && consumed > 0; j++)
+                {
+                    ByteBuffer small = buffers[j];
+                    int length = Math.min(small.remaining(), consumed);
+                    small.position(small.position() + length);
+                    consumed -= length;
+                }
+            }
+            return written;
+        }
+        finally
+        {
+            aggregate.release();
+        }
+    }
+
+    private boolean isCoalescable(ByteBuffer[] buffers)
+    {
+        for (int i = 1; i < buffers.length; i++)
+        {
+            if (buffers[i].remaining() < _threshold && buffers[i - 1].remaining() < _threshold)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{threshold=%d,capacity=%d}", getClass().getSimpleName(), hashCode(), _threshold, _capacity);
+    }
+}
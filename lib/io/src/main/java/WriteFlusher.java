@@ -427,9 +427,15 @@ public abstract class WriteFlusher
                 LOG.debug("Flushed={} written={} remaining={} {}", flushed, written, after, this);
 
             if (flushed)
+            {
+                if (written > 0)
+                    onFlushed(written);
                 return null;
+            }
 
             progress = written > 0;
+            if (progress)
+                onFlushed(written);
 
             int index = 0;
             while (true)
@@ -463,6 +469,16 @@ public abstract class WriteFlusher
         return buffers == null ? EMPTY_BUFFERS : buffers;
     }
 
+    /**
+     * <p>Called by {@link #flush(SocketAddress, ByteBuffer[])} with the number of bytes
+     * written by each call to {@link EndPoint#flush(ByteBuffer...)} that made progress.</p>
+     *
+     * @param bytes the number of bytes written
+     */
+    protected void onFlushed(long bytes)
+    {
+    }
+
     /**
      * Notify the flusher of a failure
      *
@@ -118,6 +118,9 @@ public abstract class AbstractContentSource<X> extends CompletableFuture<X>
                 chunk.release();
             }
 
+            if (!onChunkParsed())
+                return;
+
             if (chunk.isLast())
             {
                 completeExceptionally(new EOFException());
@@ -139,6 +142,19 @@ public abstract class AbstractContentSource<X> extends CompletableFuture<X>
      */
     protected abstract X parse(Content.Chunk chunk) throws Throwable;
 
+    /**
+     * <p>Callback method invoked after a chunk has been parsed without producing a result.</p>
+     * <p>Implementations may return {@code false} to stop reading chunks, for example
+     * until what has been parsed is written somewhere, and must then call {@link #parse()}
+     * later to resume the parsing.</p>
+     *
+     * @return {@code true} to read and parse the next chunk, {@code false} to stop until {@link #parse()} is called
+     */
+    protected boolean onChunkParsed()
+    {
+        return true;
+    }
+
     /**
      * <p>Callback method that informs the parsing about how to handle transient failures.</p>
      *
@@ -0,0 +1,320 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.io.content;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.WritePendingException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ab.squirrel.io.ByteBufferPool;
+import ab.squirrel.io.Content;
+import ab.squirrel.io.RetainableByteBuffer;
+import ab.squirrel.util.BufferUtil;
+import ab.squirrel.util.Callback;
+import ab.squirrel.util.IO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link Content.Sink} that writes to an {@link AsynchronousFileChannel}.</p>
+ * <p>The callback of a write is completed by the completion handler of the file channel,
+ * so that, for example, a request body can be copied to a file with
+ * {@link Content#copy(Content.Source, Content.Sink, Callback)} without blocking a thread on disk I/O.
+ * The channel is closed after the last write, or when a write fails.</p>
+ * <p>Otherwise, the channel is only closed by {@link #fail(Throwable)}, which must be called when
+ * the writes are abandoned, for example when the copy of the content fails because its source fails:
+ * {@link Content#copy(Content.Source, Content.Sink, Callback)} fails its callback but not the sink.</p>
+ * <p>If a {@link ByteBufferPool.Sized} is passed, writes are aggregated in a pooled buffer of that size,
+ * and the callback of a write that fits in the buffer is succeeded immediately, before the content is
+ * written to the file: the buffer is written when it is full or by the last write.
+ * Writes larger than the buffer are written as they are, after the aggregated content.</p>
+ */
+public class AsynchronousFileContentSink implements Content.Sink
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AsynchronousFileContentSink.class);
+
+    private final AtomicBoolean _pending = new AtomicBoolean();
+    private final AtomicReference<Throwable> _abort = new AtomicReference<>();
+    private final Writer _writer = new Writer();
+    private final AsynchronousFileChannel _channel;
+    private final Path _path;
+    private final ByteBufferPool.Sized _bufferPool;
+    private RetainableByteBuffer _aggregate;
+    private long _position;
+    private boolean _lastWritten;
+    private volatile boolean _complete;
+    private Throwable _failure;
+
+    /**
+     * <p>Creates a sink that writes to the given path, created or truncated.</p>
+     * <p>The file is deleted if this sink is {@link #fail(Throwable) failed}.</p>
+     *
+     * @param path the path of the file to write
+     * @param bufferPool the pool of the buffer in which writes are aggregated, or null to write without aggregation
+     * @throws IOException if the file cannot be opened
+     */
+    public AsynchronousFileContentSink(Path path, ByteBufferPool.Sized bufferPool) throws IOException
+    {
+        this(AsynchronousFileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING), 0, bufferPool, path);
+    }
+
+    /**
+     * @param channel the channel to write to
+     * @param position the position in the file of the first write
+     * @param bufferPool the pool of the buffer in which writes are aggregated, or null to write without aggregation
+     */
+    public AsynchronousFileContentSink(AsynchronousFileChannel channel, long position, ByteBufferPool.Sized bufferPool)
+    {
+        this(channel, position, bufferPool, null);
+    }
+
+    private AsynchronousFileContentSink(AsynchronousFileChannel channel, long position, ByteBufferPool.Sized bufferPool, Path path)
+    {
+        _channel = Objects.requireNonNull(channel);
+        _position = position;
+        _bufferPool = bufferPool;
+        _path = path;
+    }
+
+    /**
+     * @return the position in the file of the next write
+     */
+    public long getPosition()
+    {
+        return _position;
+    }
+
+    @Override
+    public void write(boolean last, ByteBuffer byteBuffer, Callback callback)
+    {
+        Throwable abort = _abort.get();
+        if (abort != null)
+        {
+            callback.failed(abort);
+            return;
+        }
+
+        if (!_pending.compareAndSet(false, true))
+        {
+            callback.failed(new WritePendingException());
+            return;
+        }
+
+        if (_failure != null || _lastWritten)
+        {
+            clearPending();
+            callback.failed(_failure != null ? _failure : new IOException("Last already written"));
+            return;
+        }
+        _lastWritten = last;
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("writing last={} {} {}", last, BufferUtil.toDetailString(byteBuffer), this);
+
+        if (_bufferPool == null)
+        {
+            _writer.write(callback, last, null, byteBuffer, null);
+            return;
+        }
+
+        if (_aggregate == null)
+            _aggregate = _bufferPool.acquire();
+        ByteBuffer aggregate = _aggregate.getByteBuffer();
+        int length = BufferUtil.length(byteBuffer);
+        if (length <= BufferUtil.space(aggregate))
+        {
+            BufferUtil.append(aggregate, byteBuffer);
+            if (last || BufferUtil.isFull(aggregate))
+            {
+                _writer.write(callback, last, aggregate, null, null);
+            }
+            else
+            {
+                // Write behind, the content is written with the aggregated content.
+                clearPending();
+                callback.succeeded();
+            }
+        }
+        else if (!last && length < aggregate.capacity())
+        {
+            // Aggregate the content once the aggregated content is written.
+            _writer.write(callback, false, aggregate, null, byteBuffer);
+        }
+        else
+        {
+            _writer.write(callback, last, aggregate, byteBuffer, null);
+        }
+    }
+
+    /**
+     * <p>Aborts the writes to this sink, unless the last write has already completed.</p>
+     * <p>The channel is closed, which fails a pending write, the aggregated content
+     * is discarded and, if this sink was created with a path, the file is deleted.
+     * The writes after this call are failed with the given failure.</p>
+     *
+     * @param failure the reason of the abort
+     */
+    public void fail(Throwable failure)
+    {
+        if (_complete || !_abort.compareAndSet(null, Objects.requireNonNull(failure)))
+            return;
+        if (LOG.isDebugEnabled())
+            LOG.debug("failing {}", this, failure);
+        IO.close(_channel);
+        if (_path != null)
+        {
+            try
+            {
+                Files.deleteIfExists(_path);
+            }
+            catch (Throwable x)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("failed to delete {}", _path, x);
+            }
+        }
+        abort();
+    }
+
+    private void clearPending()
+    {
+        _pending.set(false);
+        // Release on behalf of fail(), which could not while the write was pending.
+        if (_abort.get() != null)
+            abort();
+    }
+
+    private void abort()
+    {
+        // If a write is pending, the writer releases the aggregate when it completes.
+        if (_pending.compareAndSet(false, true))
+        {
+            if (_failure == null)
+                _failure = _abort.get();
+            release();
+        }
+    }
+
+    private void release()
+    {
+        if (_aggregate != null)
+        {
+            _aggregate.release();
+            _aggregate = null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{position=%d,last=%b,%s}", getClass().getSimpleName(), hashCode(), _position, _lastWritten, _channel);
+    }
+
+    private class Writer implements CompletionHandler<Integer, Void>
+    {
+        private Callback _callback;
+        private boolean _last;
+        private ByteBuffer _aggregated;
+        private ByteBuffer _buffer;
+        private ByteBuffer _deferred;
+
+        private void write(Callback callback, boolean last, ByteBuffer aggregated, ByteBuffer buffer, ByteBuffer deferred)
+        {
+            _callback = callback;
+            _last = last;
+            _aggregated = aggregated;
+            _buffer = buffer;
+            _deferred = deferred;
+            writeNext();
+        }
+
+        private void writeNext()
+        {
+            try
+            {
+                if (BufferUtil.hasContent(_aggregated))
+                {
+                    _channel.write(_aggregated, _position, null, this);
+                    return;
+                }
+                if (BufferUtil.hasContent(_buffer))
+                {
+                    _channel.write(_buffer, _position, null, this);
+                    return;
+                }
+                done();
+            }
+            catch (Throwable x)
+            {
+                failed(x, null);
+            }
+        }
+
+        private void done()
+        {
+            Callback callback = _callback;
+            if (_aggregated != null)
+            {
+                BufferUtil.clear(_aggregated);
+                if (_deferred != null)
+                    BufferUtil.append(_aggregated, _deferred);
+            }
+            if (_last)
+            {
+                _complete = true;
+                release();
+                IO.close(_channel);
+            }
+            reset();
+            callback.succeeded();
+        }
+
+        private void reset()
+        {
+            _callback = null;
+            _aggregated = null;
+            _buffer = null;
+            _deferred = null;
+            clearPending();
+        }
+
+        @Override
+        public void completed(Integer written, Void attachment)
+        {
+            _position += written;
+            writeNext();
+        }
+
+        @Override
+        public void failed(Throwable failure, Void attachment)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("failed to write {}", AsynchronousFileContentSink.this, failure);
+            Callback callback = _callback;
+            _failure = failure;
+            release();
+            IO.close(_channel);
+            reset();
+            callback.failed(failure);
+        }
+    }
+}
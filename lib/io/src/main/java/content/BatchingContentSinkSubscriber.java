@@ -0,0 +1,246 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.io.content;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+
+import ab.squirrel.io.ByteBufferPool;
+import ab.squirrel.io.Content;
+import ab.squirrel.io.RetainableByteBuffer;
+import ab.squirrel.util.BufferUtil;
+import ab.squirrel.util.Callback;
+import ab.squirrel.util.IteratingCallback;
+import ab.squirrel.util.thread.AutoLock;
+import ab.squirrel.util.thread.Invocable;
+
+/**
+ * <p>A {@link Flow.Subscriber} that wraps a {@link Content.Sink}, and requests and writes chunks in batches.</p>
+ * <p>Unlike {@link ContentSinkSubscriber}, which requests the next chunk only when the write of the
+ * previous one completes, this subscriber requests a batch of chunks up front, and requests more when
+ * half of them have been written. The chunks received while a write is pending are queued, and
+ * written with the next write: the small ones are merged into a pooled buffer of the
+ * {@link ByteBufferPool.Sized#getSize() size} of the given pool, the others are written as they are.</p>
+ * <p>The callback is succeeded once the last chunk has been written and the publisher has completed,
+ * and is failed if either the publisher or a write fails.</p>
+ */
+public class BatchingContentSinkSubscriber implements Flow.Subscriber<Content.Chunk>
+{
+    private final AutoLock _lock = new AutoLock();
+    private final ArrayDeque<Content.Chunk> _chunks = new ArrayDeque<>();
+    private final Flusher _flusher = new Flusher();
+    private final Content.Sink _sink;
+    private final ByteBufferPool.Sized _bufferPool;
+    private final int _batch;
+    private final Callback _callback;
+    private Flow.Subscription _subscription;
+    private boolean _complete;
+    private Throwable _failure;
+    private boolean _terminated;
+
+    /**
+     * @param sink the sink to write the chunks to
+     * @param bufferPool the pool of the buffers into which small chunks are merged
+     * @param batch the max number of chunks requested and not yet written
+     * @param callback the callback completed when all the chunks have been written, or on failure
+     */
+    public BatchingContentSinkSubscriber(Content.Sink sink, ByteBufferPool.Sized bufferPool, int batch, Callback callback)
+    {
+        if (batch <= 0)
+            throw new IllegalArgumentException("Invalid batch " + batch);
+        _sink = Objects.requireNonNull(sink);
+        _bufferPool = Objects.requireNonNull(bufferPool);
+        _batch = batch;
+        _callback = Objects.requireNonNull(callback);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription)
+    {
+        _subscription = subscription;
+        subscription.request(_batch);
+    }
+
+    @Override
+    public void onNext(Content.Chunk chunk)
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (_terminated)
+                return;
+            // Retain the chunk because it is written after this method returns.
+            chunk.retain();
+            _chunks.add(chunk);
+        }
+        _flusher.iterate();
+    }
+
+    @Override
+    public void onError(Throwable failure)
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (_failure == null)
+                _failure = failure;
+        }
+        _flusher.iterate();
+    }
+
+    @Override
+    public void onComplete()
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            _complete = true;
+        }
+        _flusher.iterate();
+    }
+
+    private class Flusher extends IteratingCallback
+    {
+        private Content.Chunk _written;
+        private RetainableByteBuffer _aggregate;
+        private int _writing;
+        private int _consumed;
+        private boolean _last;
+
+        @Override
+        protected Action process() throws Throwable
+        {
+            release();
+            _consumed += _writing;
+            _writing = 0;
+
+            Throwable failure;
+            boolean complete;
+            Content.Chunk chunk;
+            try (AutoLock ignored = _lock.lock())
+            {
+                failure = _failure;
+                complete = _complete;
+                chunk = _last ? null : _chunks.poll();
+            }
+            if (failure != null)
+                throw failure;
+
+            if (_last)
+                return complete ? Action.SUCCEEDED : Action.IDLE;
+
+            if (_consumed >= Math.max(1, _batch / 2))
+            {
+                int consumed = _consumed;
+                _consumed = 0;
+                _subscription.request(consumed);
+            }
+
+            if (chunk == null)
+            {
+                if (!complete)
+                    return Action.IDLE;
+                // The publisher completed without a last chunk.
+                _last = true;
+                _sink.write(true, BufferUtil.EMPTY_BUFFER, this);
+                return Action.SCHEDULED;
+            }
+
+            _writing = 1;
+            Content.Chunk next = chunk.isLast() ? null : poll(chunk.remaining());
+            if (next == null)
+            {
+                // A single chunk is written as it is.
+                _written = chunk;
+                _last = chunk.isLast();
+                _sink.write(_last, chunk.getByteBuffer(), this);
+                return Action.SCHEDULED;
+            }
+
+            _aggregate = _bufferPool.acquire();
+            ByteBuffer byteBuffer = _aggregate.getByteBuffer();
+            BufferUtil.append(byteBuffer, chunk.getByteBuffer());
+            chunk.release();
+            while (next != null)
+            {
+                BufferUtil.append(byteBuffer, next.getByteBuffer());
+                next.release();
+                ++_writing;
+                _last = next.isLast();
+                next = _last ? null : poll(byteBuffer.remaining());
+            }
+            _sink.write(_last, byteBuffer, this);
+            return Action.SCHEDULED;
+        }
+
+        /**
+         * @param length the number of bytes already merged
+         * @return the next chunk if it can be merged, or null
+         */
+        private Content.Chunk poll(int length)
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                Content.Chunk next = _chunks.peek();
+                if (next == null || length + next.remaining() > _bufferPool.getSize())
+                    return null;
+                return _chunks.poll();
+            }
+        }
+
+        private void release()
+        {
+            if (_written != null)
+            {
+                _written.release();
+                _written = null;
+            }
+            if (_aggregate != null)
+            {
+                _aggregate.release();
+                _aggregate = null;
+            }
+        }
+
+        @Override
+        protected void onCompleteSuccess()
+        {
+            _callback.succeeded();
+        }
+
+        @Override
+        protected void onCompleteFailure(Throwable cause)
+        {
+            release();
+            try (AutoLock ignored = _lock.lock())
+            {
+                _terminated = true;
+                Content.Chunk chunk;
+                while ((chunk = _chunks.poll()) != null)
+                {
+                    chunk.release();
+                }
+            }
+            Flow.Subscription subscription = _subscription;
+            if (subscription != null)
+                subscription.cancel();
+            _callback.failed(cause);
+        }
+
+        @Override
+        public InvocationType getInvocationType()
+        {
+            return Invocable.getInvocationType(_callback);
+        }
+    }
+}
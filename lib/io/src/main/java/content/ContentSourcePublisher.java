@@ -13,12 +13,16 @@
 
 package ab.squirrel.io.content;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.concurrent.Flow;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import ab.squirrel.io.ByteBufferPool;
 import ab.squirrel.io.Content;
+import ab.squirrel.io.RetainableByteBuffer;
+import ab.squirrel.util.BufferUtil;
 import ab.squirrel.util.IteratingCallback;
 import ab.squirrel.util.StaticException;
 import org.slf4j.Logger;
@@ -33,17 +37,32 @@ import org.slf4j.LoggerFactory;
  * <p>{@link Content.Source} can be consumed only once and does not support multicast subscription.
  * {@link Content.Source} will be consumed fully, otherwise will be failed in case of any errors
  * to prevent resource leaks.</p>
+ * <p>If a {@link ByteBufferPool.Sized} is passed, the small chunks that are read without waiting
+ * are merged into a pooled buffer of that size, and passed as a single chunk to
+ * {@link Flow.Subscriber#onNext(Object)}, so that a source of many small chunks costs
+ * fewer signals and fewer {@link Content.Source#demand(Runnable) demands}.</p>
  */
 public class ContentSourcePublisher implements Flow.Publisher<Content.Chunk>
 {
     private static final Logger LOG = LoggerFactory.getLogger(ContentSourcePublisher.class);
 
     private final AtomicReference<Content.Source> content;
+    private final ByteBufferPool.Sized bufferPool;
 
     public ContentSourcePublisher(Content.Source content)
+    {
+        this(content, null);
+    }
+
+    /**
+     * @param content the source to publish
+     * @param bufferPool the pool of the buffers into which small chunks are merged, or null to publish the chunks as they are read
+     */
+    public ContentSourcePublisher(Content.Source content, ByteBufferPool.Sized bufferPool)
     {
         Objects.requireNonNull(content, "Content.Source must not be null");
         this.content = new AtomicReference<>(content);
+        this.bufferPool = bufferPool;
     }
 
     @Override
@@ -70,7 +89,7 @@ public class ContentSourcePublisher implements Flow.Publisher<Content.Chunk>
             throw error;
         }
 
-        ActiveSubscription subscription = new ActiveSubscription(content, subscriber);
+        ActiveSubscription subscription = new ActiveSubscription(content, bufferPool, subscriber);
         // As per rule 1.9, this method must return normally (i.e. not throw).
         try
         {
@@ -132,13 +151,16 @@ public class ContentSourcePublisher implements Flow.Publisher<Content.Chunk>
         private static final Throwable COMPLETED = new StaticException("Source.Content read fully");
         private final AtomicReference<Throwable> cancelled;
         private final AtomicLong demand;
+        private final ByteBufferPool.Sized bufferPool;
         private Content.Source content;
         private Flow.Subscriber<? super Content.Chunk> subscriber;
+        private Content.Chunk pending;
 
-        public ActiveSubscription(Content.Source content, Flow.Subscriber<? super Content.Chunk> subscriber)
+        public ActiveSubscription(Content.Source content, ByteBufferPool.Sized bufferPool, Flow.Subscriber<? super Content.Chunk> subscriber)
         {
             this.cancelled = new AtomicReference<>(null);
             this.demand = new AtomicLong(0);
+            this.bufferPool = bufferPool;
             this.content = content;
             this.subscriber = subscriber;
         }
@@ -160,6 +182,11 @@ public class ContentSourcePublisher implements Flow.Publisher<Content.Chunk>
                 // As per rule 3.13, Subscription.cancel() MUST request the Publisher to eventually
                 // drop any references to the corresponding subscriber.
                 this.demand.set(NO_MORE_DEMAND);
+                if (this.pending != null)
+                {
+                    this.pending.release();
+                    this.pending = null;
+                }
                 if (cancelled != COMPLETED)
                     this.content.fail(cancelled);
                 this.content = null;
@@ -179,7 +206,7 @@ public class ContentSourcePublisher implements Flow.Publisher<Content.Chunk>
                 return Action.SUCCEEDED;
             }
 
-            Content.Chunk chunk = content.read();
+            Content.Chunk chunk = read();
 
             if (chunk == null)
             {
@@ -218,6 +245,42 @@ public class ContentSourcePublisher implements Flow.Publisher<Content.Chunk>
             return Action.IDLE;
         }
 
+        private Content.Chunk read()
+        {
+            Content.Chunk chunk = this.pending;
+            this.pending = null;
+            if (chunk == null)
+                chunk = content.read();
+            if (bufferPool == null || !isMergeable(chunk))
+                return chunk;
+
+            // Merge the chunks that can be read without waiting, the first
+            // chunk that does not fit is kept for the next read.
+            RetainableByteBuffer buffer = bufferPool.acquire();
+            ByteBuffer byteBuffer = buffer.getByteBuffer();
+            boolean last = false;
+            while (chunk != null)
+            {
+                if (Content.Chunk.isFailure(chunk) || chunk.remaining() > BufferUtil.space(byteBuffer))
+                {
+                    this.pending = chunk;
+                    break;
+                }
+                BufferUtil.append(byteBuffer, chunk.getByteBuffer());
+                last = chunk.isLast();
+                chunk.release();
+                if (last)
+                    break;
+                chunk = content.read();
+            }
+            return Content.Chunk.asChunk(byteBuffer, last, buffer);
+        }
+
+        private boolean isMergeable(Content.Chunk chunk)
+        {
+            return chunk != null && !chunk.isLast() && !Content.Chunk.isFailure(chunk) && chunk.remaining() < bufferPool.getSize();
+        }
+
         /**
          * Returns the sum of its arguments, capping to {@link Long#MAX_VALUE} if they overflow.
          *
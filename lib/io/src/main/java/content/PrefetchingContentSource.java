@@ -0,0 +1,255 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.io.content;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+import ab.squirrel.io.Content;
+import ab.squirrel.util.ExceptionUtil;
+import ab.squirrel.util.thread.AutoLock;
+import ab.squirrel.util.thread.SerializedInvoker;
+
+/**
+ * <p>A {@link Content.Source} that reads ahead the chunks of another source.</p>
+ * <p>The chunks of a source that reads blocking, such as the file sources returned by
+ * {@link Content.Source#from(ab.squirrel.io.ByteBufferPool.Sized, java.nio.file.Path)}
+ * or {@link ab.squirrel.io.IOResources#asContentSource(ab.squirrel.util.resource.Resource, ab.squirrel.io.ByteBufferPool, int, boolean)},
+ * are read by a task of the given executor and queued, so that {@link #read()} returns a chunk
+ * without waiting for the disk when the consumer, for example a socket write, is slower than the reads.</p>
+ * <p>Reading ahead starts on the first {@link #read()} or {@link #demand(Runnable)}, and pauses
+ * when {@link #getMaxChunks() max chunks} or {@link #getMaxBytes() max bytes} are queued, so a
+ * slow consumer holds at most that many buffers; it resumes as the consumer reads the queued chunks.
+ * A {@link #demand(Runnable) demand} is satisfied as soon as a chunk is queued.</p>
+ * <p>The wrapped source must not be used directly, and must release the buffer of a chunk only when
+ * the chunk is released, like the pooled file sources do.</p>
+ */
+public class PrefetchingContentSource implements Content.Source
+{
+    private final AutoLock _lock = new AutoLock();
+    private final SerializedInvoker _invoker = new SerializedInvoker();
+    private final Runnable _prefetch = this::prefetch;
+    private final Content.Source _source;
+    private final Executor _executor;
+    private final int _maxChunks;
+    private final long _maxBytes;
+    private final ArrayDeque<Content.Chunk> _chunks;
+    private long _bytes;
+    private boolean _prefetching;
+    private boolean _last;
+    private Content.Chunk _terminal;
+    private Runnable _demandCallback;
+
+    /**
+     * @param source the source to read ahead
+     * @param executor the executor of the task that reads ahead
+     * @param maxChunks the max number of chunks read ahead
+     * @param maxBytes the max number of bytes read ahead
+     */
+    public PrefetchingContentSource(Content.Source source, Executor executor, int maxChunks, long maxBytes)
+    {
+        if (maxChunks <= 0 || maxBytes <= 0)
+            throw new IllegalArgumentException("Invalid max chunks " + maxChunks + " or max bytes " + maxBytes);
+        _source = Objects.requireNonNull(source);
+        _executor = Objects.requireNonNull(executor);
+        _maxChunks = maxChunks;
+        _maxBytes = maxBytes;
+        _chunks = new ArrayDeque<>(maxChunks);
+    }
+
+    /**
+     * @return the max number of chunks read ahead
+     */
+    public int getMaxChunks()
+    {
+        return _maxChunks;
+    }
+
+    /**
+     * @return the max number of bytes read ahead
+     */
+    public long getMaxBytes()
+    {
+        return _maxBytes;
+    }
+
+    @Override
+    public long getLength()
+    {
+        return _source.getLength();
+    }
+
+    @Override
+    public Content.Chunk read()
+    {
+        Content.Chunk chunk;
+        boolean prefetch;
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (_terminal != null)
+                return _terminal;
+
+            chunk = _chunks.poll();
+            if (chunk != null)
+            {
+                _bytes -= chunk.remaining();
+                if (chunk.isLast())
+                    _terminal = Content.Chunk.isFailure(chunk) ? chunk : Content.Chunk.EOF;
+            }
+            prefetch = lockedStartPrefetch();
+        }
+        if (prefetch)
+            execute();
+        return chunk;
+    }
+
+    @Override
+    public void demand(Runnable demandCallback)
+    {
+        boolean invoke;
+        boolean prefetch = false;
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (_demandCallback != null)
+                throw new IllegalStateException("demand pending");
+            _demandCallback = demandCallback;
+            invoke = _terminal != null || !_chunks.isEmpty();
+            if (!invoke)
+                prefetch = lockedStartPrefetch();
+        }
+        if (prefetch)
+            execute();
+        if (invoke)
+            _invoker.run(this::invokeDemandCallback);
+    }
+
+    private void invokeDemandCallback()
+    {
+        Runnable demandCallback;
+        try (AutoLock ignored = _lock.lock())
+        {
+            demandCallback = _demandCallback;
+            _demandCallback = null;
+        }
+        if (demandCallback != null)
+            ExceptionUtil.run(demandCallback, this::fail);
+    }
+
+    @Override
+    public void fail(Throwable failure)
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            if (_terminal != null && Content.Chunk.isFailure(_terminal))
+                return;
+            _terminal = Content.Chunk.from(failure, true);
+            lockedClear();
+        }
+        _source.fail(failure);
+    }
+
+    private void lockedClear()
+    {
+        Content.Chunk chunk;
+        while ((chunk = _chunks.poll()) != null)
+        {
+            chunk.release();
+        }
+        _bytes = 0;
+    }
+
+    private boolean lockedStartPrefetch()
+    {
+        if (_prefetching || _last || _terminal != null || _chunks.size() >= _maxChunks || _bytes >= _maxBytes)
+            return false;
+        _prefetching = true;
+        return true;
+    }
+
+    private void execute()
+    {
+        try
+        {
+            _executor.execute(_prefetch);
+        }
+        catch (Throwable x)
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                _prefetching = false;
+            }
+            fail(x);
+        }
+    }
+
+    private void prefetch()
+    {
+        try
+        {
+            while (true)
+            {
+                Content.Chunk chunk = _source.read();
+                if (chunk == null)
+                {
+                    // Still prefetching, until the wrapped source can be read.
+                    _source.demand(_prefetch);
+                    return;
+                }
+
+                boolean invoke;
+                boolean more;
+                try (AutoLock ignored = _lock.lock())
+                {
+                    if (_terminal != null)
+                    {
+                        _prefetching = false;
+                        chunk.release();
+                        return;
+                    }
+                    _chunks.add(chunk);
+                    _bytes += chunk.remaining();
+                    _last = chunk.isLast();
+                    invoke = _demandCallback != null;
+                    // A transient failure pauses the read ahead until it is read.
+                    more = !_last && !Content.Chunk.isFailure(chunk) && _chunks.size() < _maxChunks && _bytes < _maxBytes;
+                    if (!more)
+                        _prefetching = false;
+                }
+
+                if (invoke)
+                    _invoker.run(this::invokeDemandCallback);
+                if (!more)
+                    return;
+            }
+        }
+        catch (Throwable x)
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                _prefetching = false;
+            }
+            fail(x);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            return String.format("%s@%x{chunks=%d,bytes=%d,prefetching=%b,%s}", getClass().getSimpleName(), hashCode(), _chunks.size(), _bytes, _prefetching, _source);
+        }
+    }
+}
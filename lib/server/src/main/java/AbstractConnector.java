@@ -19,6 +19,7 @@ import java.nio.channels.ClosedByInterruptException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EventListener;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -29,16 +30,22 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
 import java.util.stream.Collectors;
 
 import ab.squirrel.http.ComplianceViolation;
+import ab.squirrel.io.AbstractEndPoint;
 import ab.squirrel.io.ByteBufferPool;
 import ab.squirrel.io.EndPoint;
 import ab.squirrel.util.StringUtil;
 import ab.squirrel.util.annotation.ManagedAttribute;
 import ab.squirrel.util.annotation.ManagedObject;
+import ab.squirrel.util.annotation.ManagedOperation;
 import ab.squirrel.util.component.ContainerLifeCycle;
+import ab.squirrel.util.statistic.HistogramStatistic;
 import ab.squirrel.util.thread.AutoLock;
 import ab.squirrel.util.thread.ScheduledExecutorScheduler;
 import ab.squirrel.util.thread.Scheduler;
@@ -60,6 +67,15 @@ public abstract class AbstractConnector extends ContainerLifeCycle implements Co
     private final Thread[] _acceptors;
     private final Set<EndPoint> _endpoints = Collections.newSetFromMap(new ConcurrentHashMap<>());
     private final Set<EndPoint> _immutableEndPoints = Collections.unmodifiableSet(_endpoints);
+    private final HistogramStatistic _bytesFlushedStats = new HistogramStatistic();
+    // Per-connection totals may span the connection lifetime, up to 2^38 ns, about 4.5 minutes.
+    private final HistogramStatistic _writePendingTimeStats = new HistogramStatistic(40);
+    private final HistogramStatistic _fillInterestedTimeStats = new HistogramStatistic(40);
+    private final LongAdder _slowWritersClosed = new LongAdder();
+    private final Runnable _slowWritersCheck = this::checkSlowWriters;
+    private Scheduler.Task _slowWritersTask;
+    private long _maxWritePendingBytes = 0;
+    private long _slowWritersCheckPeriod = 1000;
     private Shutdown _shutdown;
     private long _idleTimeout = 30000;
     private long _shutdownIdleTimeout = 1000L;
@@ -191,6 +207,125 @@ public abstract class AbstractConnector extends ContainerLifeCycle implements Co
         return _shutdownIdleTimeout;
     }
 
+    /**
+     * @return the max number of bytes of the pending writes of all the connections, or 0 for no limit
+     */
+    @ManagedAttribute("The max number of bytes of the pending writes of all the connections, or 0 for no limit")
+    public long getMaxWritePendingBytes()
+    {
+        return _maxWritePendingBytes;
+    }
+
+    /**
+     * <p>Sets the max number of bytes of the pending writes of all the connections.</p>
+     * <p>A write is pending when the peer does not read fast enough, and the buffers of a pending
+     * write remain in use until the peer reads them. When the pending writes of all the connections
+     * exceed this limit, the connections that have been pending the longest, which are the slowest
+     * writers, are closed until the pending writes are within the limit again.</p>
+     * <p>The pending writes are only checked while a limit is set.</p>
+     *
+     * @param maxWritePendingBytes the max number of bytes of the pending writes, or 0 for no limit
+     */
+    public void setMaxWritePendingBytes(long maxWritePendingBytes)
+    {
+        _maxWritePendingBytes = maxWritePendingBytes;
+        updateSlowWritersCheck();
+    }
+
+    /**
+     * @return the period in milliseconds between checks of the pending writes
+     */
+    @ManagedAttribute("The period in milliseconds between checks of the pending writes")
+    public long getSlowWritersCheckPeriod()
+    {
+        return _slowWritersCheckPeriod;
+    }
+
+    /**
+     * @param period the period in milliseconds between checks of the pending writes
+     */
+    public void setSlowWritersCheckPeriod(long period)
+    {
+        if (period <= 0)
+            throw new IllegalArgumentException("Invalid period " + period);
+        _slowWritersCheckPeriod = period;
+    }
+
+    @ManagedAttribute("The number of slow writers closed because of the max pending write bytes")
+    public long getSlowWritersClosed()
+    {
+        return _slowWritersClosed.longValue();
+    }
+
+    @ManagedAttribute("The number of bytes of the pending writes of all the connections")
+    public long getWritePendingBytes()
+    {
+        long total = 0;
+        for (EndPoint endPoint : _endpoints)
+        {
+            if (endPoint instanceof AbstractEndPoint abstractEndPoint)
+                total += abstractEndPoint.getWritePendingBytes();
+        }
+        return total;
+    }
+
+    @ManagedAttribute("mean number of bytes flushed by closed connections")
+    public double getBytesFlushedMean()
+    {
+        return _bytesFlushedStats.getMean();
+    }
+
+    @ManagedAttribute("mean time writes were pending on closed connections (in ns)")
+    public double getWritePendingTimeMean()
+    {
+        return _writePendingTimeStats.getMean();
+    }
+
+    @ManagedAttribute("maximum time writes were pending on a closed connection (in ns)")
+    public long getWritePendingTimeMax()
+    {
+        return _writePendingTimeStats.getMax();
+    }
+
+    @ManagedAttribute("mean time closed connections waited for fill interest (in ns)")
+    public double getFillInterestedTimeMean()
+    {
+        return _fillInterestedTimeStats.getMean();
+    }
+
+    /**
+     * @return the histogram of the number of bytes flushed by closed connections
+     */
+    public HistogramStatistic getBytesFlushedHistogram()
+    {
+        return _bytesFlushedStats;
+    }
+
+    /**
+     * @return the histogram of the time writes were pending on closed connections, in nanoseconds
+     */
+    public HistogramStatistic getWritePendingTimeHistogram()
+    {
+        return _writePendingTimeStats;
+    }
+
+    /**
+     * @return the histogram of the time closed connections waited for fill interest, in nanoseconds
+     */
+    public HistogramStatistic getFillInterestedTimeHistogram()
+    {
+        return _fillInterestedTimeStats;
+    }
+
+    @ManagedOperation(value = "Resets the connection write statistics", impact = "ACTION")
+    public void resetWriteStatistics()
+    {
+        _bytesFlushedStats.reset();
+        _writePendingTimeStats.reset();
+        _fillInterestedTimeStats.reset();
+        _slowWritersClosed.reset();
+    }
+
     /**
      * @return Returns the number of acceptor threads.
      */
@@ -248,6 +383,8 @@ public abstract class AbstractConnector extends ContainerLifeCycle implements Co
 
         super.doStart();
 
+        updateSlowWritersCheck();
+
         for (int i = 0; i < _acceptors.length; i++) {
             Acceptor a = new Acceptor(i);
             addBean(a);
@@ -280,9 +417,13 @@ public abstract class AbstractConnector extends ContainerLifeCycle implements Co
         CompletableFuture<Void> done = shutdown.shutdown();
         interruptAcceptors();
 
-        // Reduce the idle timeout of existing connections
+        // Reduce the idle timeout of the connections, so that the idle ones are
+        // closed by the idle timeout, while the busy ones complete their current
+        // request: its response will close the connection.
         for (EndPoint ep : _endpoints)
+        {
             ep.setIdleTimeout(getShutdownIdleTimeout());
+        }
 
         // Return Future that waits for no acceptors and no connections.
         return done;
@@ -317,6 +458,8 @@ public abstract class AbstractConnector extends ContainerLifeCycle implements Co
         if (_lease != null)
             _lease.close();
 
+        updateSlowWritersCheck();
+
         // Tell the acceptors we are stopping
         interruptAcceptors();
         super.doStop();
@@ -530,11 +673,99 @@ public abstract class AbstractConnector extends ContainerLifeCycle implements Co
     protected void onEndPointClosed(EndPoint endp)
     {
         _endpoints.remove(endp);
+        if (endp instanceof AbstractEndPoint endPoint)
+        {
+            _bytesFlushedStats.record(endPoint.getBytesFlushed());
+            _writePendingTimeStats.record(endPoint.getWritePendingTotalNanos());
+            _fillInterestedTimeStats.record(endPoint.getFillInterestedTotalNanos());
+        }
         Shutdown shutdown = _shutdown;
         if (shutdown != null)
             shutdown.check();
     }
 
+    private void updateSlowWritersCheck()
+    {
+        try (AutoLock ignored = _lock.lock())
+        {
+            boolean check = isRunning() && _maxWritePendingBytes > 0;
+            if (check && _slowWritersTask == null)
+            {
+                _slowWritersTask = _scheduler.schedule(_slowWritersCheck, _slowWritersCheckPeriod, TimeUnit.MILLISECONDS);
+            }
+            else if (!check && _slowWritersTask != null)
+            {
+                _slowWritersTask.cancel();
+                _slowWritersTask = null;
+            }
+        }
+    }
+
+    private void checkSlowWriters()
+    {
+        Scheduler.Task task;
+        try (AutoLock ignored = _lock.lock())
+        {
+            task = _slowWritersTask;
+        }
+        try
+        {
+            long maxWritePendingBytes = _maxWritePendingBytes;
+            if (maxWritePendingBytes <= 0)
+                return;
+
+            List<PendingWrite> pending = new ArrayList<>();
+            long total = 0;
+            for (EndPoint endPoint : _endpoints)
+            {
+                if (endPoint instanceof AbstractEndPoint abstractEndPoint)
+                {
+                    long bytes = abstractEndPoint.getWritePendingBytes();
+                    if (bytes > 0)
+                    {
+                        pending.add(new PendingWrite(abstractEndPoint, bytes, abstractEndPoint.getWritePendingNanos()));
+                        total += bytes;
+                    }
+                }
+            }
+            if (total <= maxWritePendingBytes)
+                return;
+
+            // Close the writers that have been pending the longest first.
+            pending.sort(Comparator.comparingLong(PendingWrite::nanos).reversed());
+            for (PendingWrite write : pending)
+            {
+                if (total <= maxWritePendingBytes)
+                    break;
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Closing slow writer pending {} bytes for {} ms {}", write.bytes(), TimeUnit.NANOSECONDS.toMillis(write.nanos()), write.endPoint());
+                total -= write.bytes();
+                _slowWritersClosed.increment();
+                write.endPoint().close(new TimeoutException("Slow writer"));
+            }
+        }
+        catch (Throwable x)
+        {
+            LOG.warn("Failed slow writers check", x);
+        }
+        finally
+        {
+            try (AutoLock ignored = _lock.lock())
+            {
+                // Unless the check was cancelled or rescheduled meanwhile.
+                if (_slowWritersTask == task)
+                {
+                    _slowWritersTask = null;
+                    updateSlowWritersCheck();
+                }
+            }
+        }
+    }
+
+    private record PendingWrite(AbstractEndPoint endPoint, long bytes, long nanos)
+    {
+    }
+
     @Override
     public Scheduler getScheduler()
     {
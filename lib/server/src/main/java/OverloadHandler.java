@@ -0,0 +1,482 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.server;
+
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import ab.squirrel.http.HttpField;
+import ab.squirrel.http.HttpFields;
+import ab.squirrel.http.HttpHeader;
+import ab.squirrel.http.HttpStatus;
+import ab.squirrel.http.PreEncodedHttpField;
+import ab.squirrel.io.EndPoint;
+import ab.squirrel.io.ManagedSelector;
+import ab.squirrel.server.internal.HttpConnection;
+import ab.squirrel.util.Callback;
+import ab.squirrel.util.NanoTime;
+import ab.squirrel.util.annotation.ManagedAttribute;
+import ab.squirrel.util.annotation.ManagedObject;
+import ab.squirrel.util.thread.QueuedThreadPool;
+import ab.squirrel.util.thread.Scheduler;
+import ab.squirrel.util.thread.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link Handler} that protects a {@link Server} from overload.</p>
+ * <p>Every {@link #getPeriod() period} this handler checks:</p>
+ * <ul>
+ *     <li>whether the {@link ThreadPool} is {@link ThreadPool#isLowOnThreads() low on threads},
+ *     or its job queue is larger than {@link #getMaxQueueSize()};</li>
+ *     <li>the selector loop latency, measured as the time a probe submitted
+ *     to each {@link ManagedSelector} waits before it is run by the selector thread,
+ *     against {@link #getMaxSelectorLatency()};</li>
+ *     <li>the mean latency of the requests completed during the last period,
+ *     against {@link #getMaxRequestLatency()}.</li>
+ * </ul>
+ * <p>When any limit is exceeded, the server enters the overloaded state: the connectors stop
+ * accepting new connections (unless {@link #isAcceptingInOverload()}), the idle timeout of the
+ * connected endpoints with no request in progress is reduced to {@link #getOverloadIdleTimeout()}
+ * (and restored when the endpoint starts a request, or on recovery), and this handler fails
+ * new requests with a {@code 503} response with a {@code Retry-After} header.</p>
+ * <p>The overloaded state is left only when all the measures are below their limits
+ * multiplied by the {@link #getRecoveryRatio() recovery ratio}, so that the server
+ * does not flip in and out of the overloaded state at every check.</p>
+ * <p>This handler must be added to the {@link Server} before the handlers that do
+ * the actual work, so that requests are rejected before any content is processed.</p>
+ */
+@ManagedObject("Overload protection")
+public class OverloadHandler extends Handler.Abstract
+{
+    private static final Logger LOG = LoggerFactory.getLogger(OverloadHandler.class);
+
+    private final Server _server;
+    private final Runnable _check = this::check;
+    private final Map<ManagedSelector, SelectorProbe> _probes = new ConcurrentHashMap<>();
+    private final Map<EndPoint, Long> _idleTimeouts = new ConcurrentHashMap<>();
+    private final LongAdder _requestLatencyTotal = new LongAdder();
+    private final LongAdder _requestLatencyCount = new LongAdder();
+    private final LongAdder _rejected = new LongAdder();
+    private final LongAdder _overloads = new LongAdder();
+    private volatile boolean _overloaded;
+    private volatile String _reasons = "";
+    private Scheduler.Task _task;
+    private long _period = 1000;
+    private int _maxQueueSize = 1024;
+    private long _maxSelectorLatency = 100;
+    private long _maxRequestLatency = 0;
+    private double _recoveryRatio = 0.5D;
+    private long _overloadIdleTimeout = 1000;
+    private boolean _acceptingInOverload = false;
+    private HttpField _retryAfter = new PreEncodedHttpField(HttpHeader.RETRY_AFTER, "5");
+
+    public OverloadHandler(Server server)
+    {
+        _server = Objects.requireNonNull(server);
+    }
+
+    @Override
+    public boolean handle(Request request, Response response, Callback callback) throws Exception
+    {
+        if (_overloaded)
+        {
+            _rejected.increment();
+            response.getHeaders().put(_retryAfter);
+            response.getHeaders().put(HttpFields.CONNECTION_CLOSE);
+            Response.writeError(request, response, callback, HttpStatus.SERVICE_UNAVAILABLE_503);
+            return true;
+        }
+
+        if (_maxRequestLatency > 0)
+        {
+            Request.addCompletionListener(request, failure ->
+            {
+                _requestLatencyTotal.add(NanoTime.since(request.getBeginNanoTime()));
+                _requestLatencyCount.increment();
+            });
+        }
+        return false;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        super.doStart();
+        _task = _server.getScheduler().schedule(_check, _period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        Scheduler.Task task = _task;
+        _task = null;
+        if (task != null)
+            task.cancel();
+        if (_overloaded)
+            recover();
+        _probes.clear();
+        super.doStop();
+    }
+
+    /**
+     * @return the period in milliseconds between checks of the server load
+     */
+    @ManagedAttribute("The period in milliseconds between checks of the server load")
+    public long getPeriod()
+    {
+        return _period;
+    }
+
+    /**
+     * @param period the period in milliseconds between checks of the server load
+     */
+    public void setPeriod(long period)
+    {
+        if (period <= 0)
+            throw new IllegalArgumentException("Invalid period " + period);
+        _period = period;
+    }
+
+    /**
+     * @return the max size of the thread pool job queue, or a non-positive value for no limit
+     */
+    @ManagedAttribute("The max size of the thread pool job queue")
+    public int getMaxQueueSize()
+    {
+        return _maxQueueSize;
+    }
+
+    /**
+     * @param maxQueueSize the max size of the thread pool job queue, or a non-positive value for no limit
+     */
+    public void setMaxQueueSize(int maxQueueSize)
+    {
+        _maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * @return the max selector loop latency in milliseconds, or a non-positive value for no limit
+     */
+    @ManagedAttribute("The max selector loop latency in milliseconds")
+    public long getMaxSelectorLatency()
+    {
+        return _maxSelectorLatency;
+    }
+
+    /**
+     * @param maxSelectorLatency the max selector loop latency in milliseconds, or a non-positive value for no limit
+     */
+    public void setMaxSelectorLatency(long maxSelectorLatency)
+    {
+        _maxSelectorLatency = maxSelectorLatency;
+    }
+
+    /**
+     * <p>The limit of the mean request latency is disabled by default, because
+     * long downloads would be taken for overload.</p>
+     *
+     * @return the max mean request latency in milliseconds, or a non-positive value for no limit
+     */
+    @ManagedAttribute("The max mean request latency in milliseconds")
+    public long getMaxRequestLatency()
+    {
+        return _maxRequestLatency;
+    }
+
+    /**
+     * @param maxRequestLatency the max mean request latency in milliseconds, or a non-positive value for no limit
+     */
+    public void setMaxRequestLatency(long maxRequestLatency)
+    {
+        _maxRequestLatency = maxRequestLatency;
+    }
+
+    /**
+     * @return the ratio applied to the limits below which the measures must be to leave the overloaded state
+     */
+    @ManagedAttribute("The ratio of the limits below which the overloaded state is left")
+    public double getRecoveryRatio()
+    {
+        return _recoveryRatio;
+    }
+
+    /**
+     * @param recoveryRatio the ratio applied to the limits below which the measures must be to leave the overloaded state
+     */
+    public void setRecoveryRatio(double recoveryRatio)
+    {
+        if (recoveryRatio <= 0 || recoveryRatio > 1)
+            throw new IllegalArgumentException("Invalid recovery ratio " + recoveryRatio);
+        _recoveryRatio = recoveryRatio;
+    }
+
+    /**
+     * @return the idle timeout in milliseconds applied to the idle connected endpoints when overloaded
+     */
+    @ManagedAttribute("The idle timeout in milliseconds of the connections when overloaded")
+    public long getOverloadIdleTimeout()
+    {
+        return _overloadIdleTimeout;
+    }
+
+    /**
+     * @param overloadIdleTimeout the idle timeout in milliseconds applied to the idle connected endpoints when overloaded,
+     * or 0 to leave the idle timeouts unchanged
+     */
+    public void setOverloadIdleTimeout(long overloadIdleTimeout)
+    {
+        _overloadIdleTimeout = overloadIdleTimeout;
+    }
+
+    /**
+     * @return whether the connectors keep accepting connections when overloaded
+     */
+    @ManagedAttribute("Whether the connectors keep accepting connections when overloaded")
+    public boolean isAcceptingInOverload()
+    {
+        return _acceptingInOverload;
+    }
+
+    /**
+     * @param acceptingInOverload whether the connectors keep accepting connections when overloaded
+     */
+    public void setAcceptingInOverload(boolean acceptingInOverload)
+    {
+        _acceptingInOverload = acceptingInOverload;
+    }
+
+    /**
+     * @return the value in seconds of the {@code Retry-After} header of the rejected requests
+     */
+    @ManagedAttribute("The Retry-After in seconds of the rejected requests")
+    public int getRetryAfter()
+    {
+        return Integer.parseInt(_retryAfter.getValue());
+    }
+
+    /**
+     * @param retryAfter the value in seconds of the {@code Retry-After} header of the rejected requests
+     */
+    public void setRetryAfter(int retryAfter)
+    {
+        _retryAfter = new PreEncodedHttpField(HttpHeader.RETRY_AFTER, Integer.toString(retryAfter));
+    }
+
+    @ManagedAttribute("Whether the server is overloaded")
+    public boolean isOverloaded()
+    {
+        return _overloaded;
+    }
+
+    @ManagedAttribute("The reasons of the current overload")
+    public String getReasons()
+    {
+        return _reasons;
+    }
+
+    @ManagedAttribute("The number of requests rejected because of overload")
+    public long getRejected()
+    {
+        return _rejected.sum();
+    }
+
+    @ManagedAttribute("The number of times the server entered the overloaded state")
+    public long getOverloads()
+    {
+        return _overloads.sum();
+    }
+
+    private void check()
+    {
+        try
+        {
+            String reasons = checkLimits(_overloaded ? _recoveryRatio : 1.0D);
+            if (reasons != null)
+            {
+                _reasons = reasons;
+                if (!_overloaded)
+                {
+                    LOG.warn("Overloaded {}: {}", _server, reasons);
+                    _overloads.increment();
+                    _overloaded = true;
+                    setAccepting(_acceptingInOverload);
+                }
+                // Also apply to the endpoints opened or idle since the last check.
+                reduceIdleTimeouts();
+            }
+            else if (_overloaded)
+            {
+                LOG.info("Recovered from overload {}", _server);
+                recover();
+            }
+        }
+        catch (Throwable x)
+        {
+            LOG.warn("Failed overload check", x);
+        }
+        finally
+        {
+            if (isRunning())
+                _task = _server.getScheduler().schedule(_check, _period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private String checkLimits(double ratio)
+    {
+        StringBuilder reasons = new StringBuilder();
+
+        ThreadPool threadPool = _server.getThreadPool();
+        int queueSize = threadPool instanceof QueuedThreadPool qtp ? qtp.getQueueSize() : 0;
+        // Once overloaded, being low on threads only matters while jobs are still queued.
+        if (threadPool.isLowOnThreads() && (!_overloaded || queueSize > 0))
+            reasons.append("low on threads,");
+        if (_maxQueueSize > 0 && queueSize > _maxQueueSize * ratio)
+            reasons.append("queue size ").append(queueSize).append(',');
+
+        long selectorLatency = TimeUnit.NANOSECONDS.toMillis(probeSelectors());
+        if (_maxSelectorLatency > 0 && selectorLatency > _maxSelectorLatency * ratio)
+            reasons.append("selector latency ").append(selectorLatency).append("ms,");
+
+        long count = _requestLatencyCount.sumThenReset();
+        long total = _requestLatencyTotal.sumThenReset();
+        long requestLatency = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(total / count);
+        if (_maxRequestLatency > 0 && requestLatency > _maxRequestLatency * ratio)
+            reasons.append("request latency ").append(requestLatency).append("ms,");
+
+        if (reasons.isEmpty())
+            return null;
+        reasons.setLength(reasons.length() - 1);
+        return reasons.toString();
+    }
+
+    private long probeSelectors()
+    {
+        long latency = 0;
+        for (Connector connector : _server.getConnectors())
+        {
+            for (ManagedSelector selector : connector.getContainedBeans(ManagedSelector.class))
+            {
+                if (selector.isRunning())
+                    latency = Math.max(latency, _probes.computeIfAbsent(selector, SelectorProbe::new).probe());
+            }
+        }
+        return latency;
+    }
+
+    private void recover()
+    {
+        _overloaded = false;
+        _reasons = "";
+        setAccepting(true);
+        restoreIdleTimeouts();
+    }
+
+    private void setAccepting(boolean accepting)
+    {
+        for (Connector connector : _server.getConnectors())
+        {
+            if (connector instanceof AbstractConnector abstractConnector && abstractConnector.isAccepting() != accepting)
+                abstractConnector.setAccepting(accepting);
+        }
+    }
+
+    private void reduceIdleTimeouts()
+    {
+        if (_overloadIdleTimeout <= 0)
+            return;
+        _idleTimeouts.keySet().removeIf(endPoint -> !endPoint.isOpen());
+        for (Connector connector : _server.getConnectors())
+        {
+            for (EndPoint endPoint : connector.getConnectedEndPoints())
+            {
+                boolean idle = endPoint.getConnection() instanceof HttpConnection connection && connection.isIdle();
+                Long idleTimeout = _idleTimeouts.get(endPoint);
+                if (idleTimeout == null)
+                {
+                    // Only reduce the idle timeout of the endpoints with no request in progress.
+                    if (idle && endPoint.getIdleTimeout() > _overloadIdleTimeout)
+                    {
+                        _idleTimeouts.put(endPoint, endPoint.getIdleTimeout());
+                        endPoint.setIdleTimeout(_overloadIdleTimeout);
+                    }
+                }
+                else if (!idle)
+                {
+                    // A request started since the idle timeout was reduced.
+                    _idleTimeouts.remove(endPoint);
+                    endPoint.setIdleTimeout(idleTimeout);
+                }
+            }
+        }
+    }
+
+    private void restoreIdleTimeouts()
+    {
+        for (Map.Entry<EndPoint, Long> entry : _idleTimeouts.entrySet())
+        {
+            EndPoint endPoint = entry.getKey();
+            if (endPoint.isOpen())
+                endPoint.setIdleTimeout(entry.getValue());
+        }
+        _idleTimeouts.clear();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,overloaded=%b}", getClass().getSimpleName(), hashCode(), getState(), _overloaded);
+    }
+
+    /**
+     * <p>Measures the latency of a selector loop as the time between the submission of
+     * this update and its execution by the selector thread.</p>
+     * <p>Only one probe is pending at any time: if it has not run by the next check,
+     * the time it has been waiting so far is the latency.</p>
+     */
+    private static class SelectorProbe implements ManagedSelector.SelectorUpdate
+    {
+        private final ManagedSelector _selector;
+        private volatile long _submitted;
+        private volatile boolean _pending;
+        private volatile long _latency;
+
+        private SelectorProbe(ManagedSelector selector)
+        {
+            _selector = selector;
+        }
+
+        private long probe()
+        {
+            if (_pending)
+                return Math.max(_latency, NanoTime.since(_submitted));
+            long latency = _latency;
+            _submitted = NanoTime.now();
+            _pending = true;
+            _selector.submit(this);
+            return latency;
+        }
+
+        @Override
+        public void update(Selector selector)
+        {
+            _latency = NanoTime.since(_submitted);
+            _pending = false;
+        }
+    }
+}
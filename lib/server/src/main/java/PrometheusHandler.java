@@ -0,0 +1,420 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.server;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import ab.squirrel.http.HttpHeader;
+import ab.squirrel.http.HttpMethod;
+import ab.squirrel.http.HttpStatus;
+import ab.squirrel.io.ByteBufferPool;
+import ab.squirrel.io.RetainableByteBuffer;
+import ab.squirrel.util.BufferUtil;
+import ab.squirrel.util.Callback;
+import ab.squirrel.util.annotation.ManagedAttribute;
+import ab.squirrel.util.annotation.ManagedObject;
+import ab.squirrel.util.annotation.ManagedOperation;
+import ab.squirrel.util.component.Container;
+import ab.squirrel.util.component.LifeCycle;
+import ab.squirrel.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link Handler} that exports the numeric {@link ManagedAttribute}s of all the
+ * beans of a {@link Server} in the Prometheus text exposition format.</p>
+ * <p>The bean tree of the {@link Server} is walked once, when the {@link Server} is started,
+ * and every {@link ManagedAttribute} getter returning a number or a boolean is compiled into a
+ * {@link MethodHandle} bound to its bean, so that a scrape does not use reflection.</p>
+ * <p>A scrape renders the metrics into a reused {@link StringBuilder} and copies it
+ * into a pooled buffer that is written as the response.</p>
+ * <p>Like other handlers that only handle a specific path, this handler returns
+ * {@code false} for all the requests that are not a {@code GET} of the
+ * {@link #getPath() path}.</p>
+ */
+@ManagedObject("Prometheus exporter of managed attributes")
+public class PrometheusHandler extends Handler.Abstract
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PrometheusHandler.class);
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final AutoLock _lock = new AutoLock();
+    private final Server _server;
+    private final LifeCycle.Listener _serverListener = new LifeCycle.Listener()
+    {
+        @Override
+        public void lifeCycleStarted(LifeCycle event)
+        {
+            compile();
+        }
+    };
+    private final StringBuilder _text = new StringBuilder(4096);
+    private volatile List<Family> _families = List.of();
+    private String _path = "/prometheus";
+    private String _prefix = "squirrel_";
+
+    public PrometheusHandler(Server server)
+    {
+        _server = Objects.requireNonNull(server);
+    }
+
+    /**
+     * @return the path at which the metrics are exported
+     */
+    @ManagedAttribute("The path at which the metrics are exported")
+    public String getPath()
+    {
+        return _path;
+    }
+
+    /**
+     * @param path the path at which the metrics are exported
+     */
+    public void setPath(String path)
+    {
+        _path = Objects.requireNonNull(path);
+    }
+
+    /**
+     * @return the prefix of the metric names
+     */
+    @ManagedAttribute("The prefix of the metric names")
+    public String getPrefix()
+    {
+        return _prefix;
+    }
+
+    /**
+     * @param prefix the prefix of the metric names
+     */
+    public void setPrefix(String prefix)
+    {
+        _prefix = prefix == null ? "" : prefix;
+    }
+
+    @ManagedAttribute("The number of exported metrics")
+    public int getMetrics()
+    {
+        int metrics = 0;
+        for (Family family : _families)
+        {
+            metrics += family._metrics.size();
+        }
+        return metrics;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        _server.addEventListener(_serverListener);
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        _server.removeEventListener(_serverListener);
+        _families = List.of();
+    }
+
+    @Override
+    public boolean handle(Request request, Response response, Callback callback) throws Exception
+    {
+        if (!HttpMethod.GET.is(request.getMethod()) || !_path.equals(Request.getPathInContext(request)))
+            return false;
+
+        ByteBufferPool bufferPool = request.getComponents().getByteBufferPool();
+        RetainableByteBuffer buffer;
+        try (AutoLock ignored = _lock.lock())
+        {
+            _text.setLength(0);
+            render(_text);
+            // The HELP lines are free text, so may not be ASCII.
+            byte[] bytes = _text.toString().getBytes(StandardCharsets.UTF_8);
+            buffer = bufferPool.acquire(bytes.length, false);
+            ByteBuffer byteBuffer = buffer.getByteBuffer();
+            int pos = BufferUtil.flipToFill(byteBuffer);
+            byteBuffer.put(bytes);
+            BufferUtil.flipToFlush(byteBuffer, pos);
+        }
+
+        response.setStatus(HttpStatus.OK_200);
+        response.getHeaders().put(HttpHeader.CONTENT_TYPE, CONTENT_TYPE);
+        response.write(true, buffer.getByteBuffer(), Callback.from(callback, buffer::release));
+        return true;
+    }
+
+    /**
+     * <p>Walks the bean tree of the {@link Server} and compiles the accessors
+     * of all the numeric {@link ManagedAttribute}s.</p>
+     * <p>This is done automatically when the {@link Server} is started, and needs
+     * to be repeated only if beans are added to or removed from a running {@link Server}.</p>
+     */
+    @ManagedOperation(value = "rebuilds the list of exported metrics", impact = "ACTION")
+    public void compile()
+    {
+        Map<String, Family> families = new LinkedHashMap<>();
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        compile(_server, families, visited);
+        _families = List.copyOf(families.values());
+        if (LOG.isDebugEnabled())
+            LOG.debug("compiled {} metrics from {} beans", getMetrics(), visited.size());
+    }
+
+    private void compile(Object bean, Map<String, Family> families, Set<Object> visited)
+    {
+        if (bean == null || !visited.add(bean))
+            return;
+
+        Class<?> beanClass = bean.getClass();
+        if (isManagedObject(beanClass))
+        {
+            String id = Integer.toHexString(System.identityHashCode(bean));
+            for (Method method : beanClass.getMethods())
+            {
+                if (method.getParameterCount() != 0 || Modifier.isStatic(method.getModifiers()))
+                    continue;
+                Kind kind = Kind.of(method.getReturnType());
+                if (kind == null)
+                    continue;
+                ManagedAttribute attribute = findManagedAttribute(beanClass, method);
+                if (attribute == null)
+                    continue;
+                MethodHandle handle = unreflect(method, bean, kind);
+                if (handle == null)
+                    continue;
+
+                String name = _prefix + toSnakeCase(beanClass.getSimpleName()) + "_" + toSnakeCase(attributeName(method, attribute));
+                families.computeIfAbsent(name, n -> new Family(n, attribute.value()))._metrics.add(new Metric(id, kind, handle));
+            }
+        }
+
+        if (bean instanceof Container container)
+        {
+            for (Object child : container.getBeans())
+            {
+                compile(child, families, visited);
+            }
+        }
+    }
+
+    private static boolean isManagedObject(Class<?> clazz)
+    {
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass())
+        {
+            if (c.isAnnotationPresent(ManagedObject.class))
+                return true;
+            for (Class<?> i : c.getInterfaces())
+            {
+                if (isManagedObject(i))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static ManagedAttribute findManagedAttribute(Class<?> clazz, Method method)
+    {
+        ManagedAttribute attribute = method.getAnnotation(ManagedAttribute.class);
+        if (attribute != null)
+            return attribute;
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass())
+        {
+            attribute = findDeclaredManagedAttribute(c, method);
+            if (attribute != null)
+                return attribute;
+            for (Class<?> i : c.getInterfaces())
+            {
+                attribute = findManagedAttribute(i, method);
+                if (attribute != null)
+                    return attribute;
+            }
+        }
+        return null;
+    }
+
+    private static ManagedAttribute findDeclaredManagedAttribute(Class<?> clazz, Method method)
+    {
+        try
+        {
+            return clazz.getDeclaredMethod(method.getName()).getAnnotation(ManagedAttribute.class);
+        }
+        catch (NoSuchMethodException x)
+        {
+            return null;
+        }
+    }
+
+    private static MethodHandle unreflect(Method method, Object bean, Kind kind)
+    {
+        // The bean class may not be public, so look for an accessible declaration of the method.
+        for (Class<?> c = bean.getClass(); c != null; c = c.getSuperclass())
+        {
+            MethodHandle handle = unreflect(c, method, bean, kind);
+            if (handle != null)
+                return handle;
+            for (Class<?> i : c.getInterfaces())
+            {
+                handle = unreflect(i, method, bean, kind);
+                if (handle != null)
+                    return handle;
+            }
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("inaccessible managed attribute {}", method);
+        return null;
+    }
+
+    private static MethodHandle unreflect(Class<?> clazz, Method method, Object bean, Kind kind)
+    {
+        if (!Modifier.isPublic(clazz.getModifiers()))
+            return null;
+        try
+        {
+            MethodHandle handle = MethodHandles.publicLookup().findVirtual(clazz, method.getName(), MethodType.methodType(method.getReturnType()));
+            return handle.bindTo(bean).asType(MethodType.methodType(kind._type));
+        }
+        catch (NoSuchMethodException | IllegalAccessException x)
+        {
+            return null;
+        }
+    }
+
+    private static String attributeName(Method method, ManagedAttribute attribute)
+    {
+        if (!attribute.name().isEmpty())
+            return attribute.name();
+        String name = method.getName();
+        if (name.startsWith("get") && name.length() > 3)
+            return name.substring(3);
+        if (name.startsWith("is") && name.length() > 2)
+            return name.substring(2);
+        return name;
+    }
+
+    private static String toSnakeCase(String name)
+    {
+        StringBuilder builder = new StringBuilder(name.length() + 8);
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z')
+            {
+                if (i > 0 && Character.isLowerCase(name.charAt(i - 1)))
+                    builder.append('_');
+                builder.append((char)(c + ('a' - 'A')));
+            }
+            else if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9'))
+            {
+                builder.append(c);
+            }
+            else if (builder.length() > 0 && builder.charAt(builder.length() - 1) != '_')
+            {
+                builder.append('_');
+            }
+        }
+        return builder.toString();
+    }
+
+    private void render(StringBuilder builder)
+    {
+        for (Family family : _families)
+        {
+            builder.append("# HELP ").append(family._name).append(' ').append(family._help).append('\n');
+            builder.append("# TYPE ").append(family._name).append(" gauge\n");
+            for (Metric metric : family._metrics)
+            {
+                int mark = builder.length();
+                builder.append(family._name).append("{id=\"").append(metric.id()).append("\"} ");
+                try
+                {
+                    switch (metric.kind())
+                    {
+                        case LONG -> builder.append((long)metric.handle().invokeExact());
+                        case DOUBLE -> builder.append((double)metric.handle().invokeExact());
+                        case BOOLEAN -> builder.append((boolean)metric.handle().invokeExact() ? 1 : 0);
+                    }
+                    builder.append('\n');
+                }
+                catch (Throwable x)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("failed to render {}", family._name, x);
+                    builder.setLength(mark);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,%s}", getClass().getSimpleName(), hashCode(), getState(), _path);
+    }
+
+    private enum Kind
+    {
+        LONG(long.class), DOUBLE(double.class), BOOLEAN(boolean.class);
+
+        private final Class<?> _type;
+
+        Kind(Class<?> type)
+        {
+            _type = type;
+        }
+
+        private static Kind of(Class<?> type)
+        {
+            if (type == long.class || type == int.class || type == short.class || type == byte.class)
+                return LONG;
+            if (type == double.class || type == float.class)
+                return DOUBLE;
+            if (type == boolean.class)
+                return BOOLEAN;
+            return null;
+        }
+    }
+
+    private static class Family
+    {
+        private final String _name;
+        private final String _help;
+        private final List<Metric> _metrics = new ArrayList<>();
+
+        private Family(String name, String help)
+        {
+            _name = name;
+            _help = help.replace('\\', ' ').replace('\n', ' ');
+        }
+    }
+
+    private record Metric(String id, Kind kind, MethodHandle handle)
+    {
+    }
+}
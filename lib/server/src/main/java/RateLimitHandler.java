@@ -0,0 +1,285 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.server;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import ab.squirrel.http.HttpHeader;
+import ab.squirrel.http.HttpStatus;
+import ab.squirrel.util.Callback;
+import ab.squirrel.util.NanoTime;
+import ab.squirrel.util.annotation.ManagedAttribute;
+import ab.squirrel.util.annotation.ManagedObject;
+import ab.squirrel.util.annotation.ManagedOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A {@link Handler} that limits the rate of requests of each client.</p>
+ * <p>Clients are identified by the value of a configurable {@link #getHeader() header},
+ * or by the address of the remote peer if the header is not configured or not present.
+ * Each client has a token bucket that is refilled at {@link #getRate()} tokens per second,
+ * up to {@link #getBurst()} tokens; a request takes a token, and it is rejected with a
+ * {@code 429} response if the bucket is empty.</p>
+ * <p>A bucket is a single {@link AtomicLong} holding the time at which the bucket will be full
+ * again (the "theoretical arrival time" of the generic cell rate algorithm), updated with
+ * a compare and set, so that checking a request takes no lock.
+ * A bucket whose time is in the past is full, and it is therefore equivalent to a missing bucket:
+ * such buckets are removed from the map periodically, and when the map reaches
+ * {@link #getMaxClients()} entries. If the map is still full after the removal,
+ * the requests from new clients are not limited until some buckets become full again,
+ * so that clients that flood the map with keys cannot lock out the other clients.</p>
+ * <p>The value of the {@link #getHeader() header} is chosen by the client, so it must only be
+ * configured when it is set by a trusted intermediary, such as a proxy that overwrites it.</p>
+ * <p>This handler must be added to the {@link Server} before the handlers that do
+ * the actual work, so that requests are rejected before any content is processed.</p>
+ */
+@ManagedObject("Per client rate limiting")
+public class RateLimitHandler extends Handler.Abstract
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimitHandler.class);
+
+    private final ConcurrentMap<Object, AtomicLong> _buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean _sweeping = new AtomicBoolean();
+    private final LongAdder _rejected = new LongAdder();
+    private final LongAdder _unlimited = new LongAdder();
+    private volatile long _nextSweep = NanoTime.now();
+    private volatile long _interval;
+    private volatile long _tolerance;
+    private int _rate;
+    private int _burst;
+    private int _maxClients = 10_000;
+    private long _sweepPeriod = 10_000;
+    private String _header;
+
+    public RateLimitHandler()
+    {
+        this(100, 200);
+    }
+
+    /**
+     * @param rate the number of requests per second allowed for each client
+     * @param burst the number of requests a client may send in a burst
+     */
+    public RateLimitHandler(int rate, int burst)
+    {
+        setRate(rate, burst);
+    }
+
+    @Override
+    public boolean handle(Request request, Response response, Callback callback) throws Exception
+    {
+        long now = NanoTime.now();
+        if (NanoTime.isBefore(_nextSweep, now))
+            sweep(now);
+
+        Object key = getKey(request);
+        AtomicLong bucket = _buckets.get(key);
+        if (bucket == null)
+        {
+            if (_buckets.size() >= _maxClients)
+            {
+                sweep(now);
+                if (_buckets.size() >= _maxClients)
+                {
+                    // Fail open, rather than rejecting all the new clients.
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Too many clients, not limiting {}", key);
+                    _unlimited.increment();
+                    return false;
+                }
+            }
+            bucket = _buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+
+        long interval = _interval;
+        long tolerance = _tolerance;
+        while (true)
+        {
+            long full = bucket.get();
+            long next = Math.max(full - now, 0) + interval;
+            if (next > tolerance)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Rate exceeded, rejecting {}", key);
+                reject(request, response, callback, TimeUnit.NANOSECONDS.toSeconds(next - tolerance) + 1);
+                return true;
+            }
+            if (bucket.compareAndSet(full, now + next))
+                return false;
+        }
+    }
+
+    /**
+     * @param request the request
+     * @return the key identifying the client that sent the request
+     */
+    protected Object getKey(Request request)
+    {
+        String header = _header;
+        if (header != null)
+        {
+            String value = request.getHeaders().get(header);
+            if (value != null)
+                return value;
+        }
+        SocketAddress remote = request.getConnectionMetaData().getRemoteSocketAddress();
+        if (remote instanceof InetSocketAddress inetSocketAddress && inetSocketAddress.getAddress() != null)
+            return inetSocketAddress.getAddress();
+        return remote;
+    }
+
+    private void reject(Request request, Response response, Callback callback, long retryAfter)
+    {
+        _rejected.increment();
+        response.getHeaders().put(HttpHeader.RETRY_AFTER, retryAfter);
+        Response.writeError(request, response, callback, HttpStatus.TOO_MANY_REQUESTS_429);
+    }
+
+    private void sweep(long now)
+    {
+        if (!_sweeping.compareAndSet(false, true))
+            return;
+        try
+        {
+            _nextSweep = now + TimeUnit.MILLISECONDS.toNanos(_sweepPeriod);
+            // A bucket that is full is the same as a new bucket.
+            _buckets.values().removeIf(bucket -> NanoTime.isBeforeOrSame(bucket.get(), now));
+        }
+        finally
+        {
+            _sweeping.set(false);
+        }
+    }
+
+    /**
+     * @param rate the number of requests per second allowed for each client
+     * @param burst the number of requests a client may send in a burst
+     */
+    public final void setRate(int rate, int burst)
+    {
+        if (rate <= 0)
+            throw new IllegalArgumentException("Invalid rate " + rate);
+        if (burst <= 0)
+            throw new IllegalArgumentException("Invalid burst " + burst);
+        _rate = rate;
+        _burst = burst;
+        _interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        _tolerance = _interval * burst;
+    }
+
+    @ManagedAttribute("The number of requests per second allowed for each client")
+    public int getRate()
+    {
+        return _rate;
+    }
+
+    @ManagedAttribute("The number of requests a client may send in a burst")
+    public int getBurst()
+    {
+        return _burst;
+    }
+
+    /**
+     * @return the name of the header identifying the client, or null to use the remote address
+     */
+    @ManagedAttribute("The header identifying the client")
+    public String getHeader()
+    {
+        return _header;
+    }
+
+    /**
+     * <p>Sets the header identifying the client.</p>
+     * <p>Its value is trusted: a client can send a different value with each request,
+     * to be counted as a new client, so the header must be set by a trusted intermediary.</p>
+     *
+     * @param header the name of the header identifying the client, or null to use the remote address
+     */
+    public void setHeader(String header)
+    {
+        _header = header;
+    }
+
+    /**
+     * @return the max number of clients whose bucket is tracked
+     */
+    @ManagedAttribute("The max number of tracked clients")
+    public int getMaxClients()
+    {
+        return _maxClients;
+    }
+
+    /**
+     * @param maxClients the max number of clients whose bucket is tracked
+     */
+    public void setMaxClients(int maxClients)
+    {
+        _maxClients = maxClients;
+    }
+
+    /**
+     * @return the period in milliseconds between removals of the full buckets
+     */
+    @ManagedAttribute("The period in milliseconds between removals of the full buckets")
+    public long getSweepPeriod()
+    {
+        return _sweepPeriod;
+    }
+
+    /**
+     * @param sweepPeriod the period in milliseconds between removals of the full buckets
+     */
+    public void setSweepPeriod(long sweepPeriod)
+    {
+        _sweepPeriod = sweepPeriod;
+    }
+
+    @ManagedAttribute("The number of tracked clients")
+    public int getClients()
+    {
+        return _buckets.size();
+    }
+
+    @ManagedAttribute("The number of rejected requests")
+    public long getRejected()
+    {
+        return _rejected.sum();
+    }
+
+    @ManagedAttribute("The number of requests not limited because too many clients were tracked")
+    public long getUnlimited()
+    {
+        return _unlimited.sum();
+    }
+
+    @ManagedOperation(value = "forgets all the tracked clients", impact = "ACTION")
+    public void clear()
+    {
+        _buckets.clear();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,rate=%d,burst=%d,clients=%d}", getClass().getSimpleName(), hashCode(), getState(), _rate, _burst, _buckets.size());
+    }
+}
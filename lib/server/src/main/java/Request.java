@@ -54,6 +54,7 @@ import ab.squirrel.util.Callback;
 import ab.squirrel.util.Fields;
 import ab.squirrel.util.HostPort;
 import ab.squirrel.util.NanoTime;
+import ab.squirrel.util.QueryParameters;
 import ab.squirrel.util.StringUtil;
 import ab.squirrel.util.URIUtil;
 import ab.squirrel.util.UrlEncoded;
@@ -558,6 +559,19 @@ public interface Request extends Attributes, Content.Source
         return fields;
     }
 
+    /**
+     * <p>Get a view of the UTF-8 query parameters of a request, that only decodes
+     * the parameters that are looked up, rather than all of them as
+     * {@link #extractQueryParameters(Request)} does.</p>
+     *
+     * @param request The request to enquire.
+     * @return a view of the query parameters of the request
+     */
+    static QueryParameters getQueryParameters(Request request)
+    {
+        return request.getHttpURI().getQueryParameters();
+    }
+
     static Fields getParameters(Request request) throws Exception
     {
         return getParametersAsync(request).get();
@@ -27,6 +27,9 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import ab.squirrel.http.DateGenerator;
 import ab.squirrel.http.HttpField;
@@ -41,14 +44,15 @@ import ab.squirrel.util.Attributes;
 import ab.squirrel.util.Callback;
 import ab.squirrel.util.DecoratedObjectFactory;
 import ab.squirrel.util.IO;
+import ab.squirrel.util.NanoTime;
 import ab.squirrel.util.annotation.ManagedAttribute;
 import ab.squirrel.util.annotation.ManagedObject;
 import ab.squirrel.util.annotation.Name;
 import ab.squirrel.util.component.AttributeContainerMap;
+import ab.squirrel.util.component.Graceful;
 import ab.squirrel.util.component.LifeCycle;
 import ab.squirrel.util.resource.FileSystemPool;
 import ab.squirrel.util.resource.Resource;
-import ab.squirrel.util.thread.AutoLock;
 import ab.squirrel.util.thread.QueuedThreadPool;
 import ab.squirrel.util.thread.ScheduledExecutorScheduler;
 import ab.squirrel.util.thread.Scheduler;
@@ -70,9 +74,11 @@ public class Server extends Handler.Abstract implements Attributes
     private final List<Handler> _handlers = new ArrayList<>();
 
     private final Context _serverContext = new ServerContext();
-    private final AutoLock _dateLock = new AutoLock();
+    private final Runnable _dateTick = this::tickDate;
     private Request.Handler _errorHandler = new ErrorHandler();
     private volatile DateField _dateField;
+    private volatile Scheduler.Task _dateTask;
+    private long _stopTimeout = 30_000;
 
     public Server()
     {
@@ -87,12 +93,24 @@ public class Server extends Handler.Abstract implements Attributes
      * @see Connector#getLocalPort()
      */
     public Server(@Name("port") int port)
+    {
+        this(port, null);
+    }
+
+    /**
+     * Creates server and a {@link ServerConnector} at the passed port, using the given buffer pool,
+     * for example a {@link ab.squirrel.io.TrackingByteBufferPool} to find buffer leaks.
+     *
+     * @param port The port of a network HTTP connector (or 0 for a randomly allocated port).
+     * @param bufferPool the buffer pool, or null for a default {@link ArrayByteBufferPool}
+     */
+    public Server(@Name("port") int port, @Name("bufferPool") ByteBufferPool bufferPool)
     {
         _threadPool = new QueuedThreadPool();
         installBean(_threadPool);
         _scheduler = new ScheduledExecutorScheduler();
         installBean(_scheduler);
-        _bufferPool = new ArrayByteBufferPool();
+        _bufferPool = bufferPool != null ? bufferPool : new ArrayByteBufferPool();
         installBean(_bufferPool);
         installBean(FileSystemPool.INSTANCE, false);
 
@@ -152,6 +170,7 @@ public class Server extends Handler.Abstract implements Attributes
     public void addHandler(Handler handler)
     {
       _handlers.add(handler);
+      addBean(handler);
     }
 
     /**
@@ -186,32 +205,39 @@ public class Server extends Handler.Abstract implements Attributes
     }
 
     /**
+     * <p>The {@code Date} field is formatted once per second by a task of the {@link #getScheduler() scheduler},
+     * and published without locks. Until the task has run for the current second, for example
+     * because the server is not started, the field is formatted by the calling thread.</p>
+     *
      * @return A {@link HttpField} instance efficiently recording the current time to a second resolution,
      * that cannot be cleared from a {@link ResponseHttpFields} instance.
      */
     public HttpField getDateField()
     {
         long now = System.currentTimeMillis();
-        long seconds = now / 1000;
         DateField df = _dateField;
-
-        if (df == null || df._seconds != seconds)
-        {
-            try (AutoLock ignore = _dateLock.lock())
-            {
-                df = _dateField;
-                if (df == null || df._seconds != seconds)
-                {
-                    // Create a persistent HttpField
-                    HttpField field = new PreEncodedHttpField(HttpHeader.DATE, DateGenerator.formatDate(now), true, null);
-                    _dateField = new DateField(seconds, field);
-                    return field;
-                }
-            }
-        }
+        if (df == null || df._seconds != now / 1000)
+            _dateField = df = newDateField(now);
         return df._dateField;
     }
 
+    private static DateField newDateField(long now)
+    {
+        // Create a persistent HttpField
+        HttpField field = new PreEncodedHttpField(HttpHeader.DATE, DateGenerator.formatDate(now), true, null);
+        return new DateField(now / 1000, field);
+    }
+
+    private void tickDate()
+    {
+        long now = System.currentTimeMillis();
+        DateField df = _dateField;
+        if (df == null || df._seconds != now / 1000)
+            _dateField = newDateField(now);
+        if (isRunning())
+            _dateTask = _scheduler.schedule(_dateTick, 1000 - now % 1000, TimeUnit.MILLISECONDS);
+    }
+
     @Override
     protected void doStart() throws Exception
     {
@@ -234,6 +260,9 @@ public class Server extends Handler.Abstract implements Attributes
             // #start(LifeCycle) is overridden so that connectors are not started
             super.doStart();
 
+            // format the Date field off the request threads, at the start of every second
+            tickDate();
+
             // start connectors
             for (Connector connector : _connectors) {
                 connector.start();
@@ -255,16 +284,91 @@ public class Server extends Handler.Abstract implements Attributes
         System.out.println("");
         LOG.info(String.format("Stop server %s", this));
 
+        // Gracefully shutdown: the connectors stop accepting and close their idle connections,
+        // while the in-flight requests are given until the stop timeout to complete.
+        long stopTimeout = getStopTimeout();
+        long threadPoolStopTimeout = -1;
+        if (stopTimeout > 0)
+        {
+            long end = NanoTime.now() + TimeUnit.MILLISECONDS.toNanos(stopTimeout);
+            try
+            {
+                Graceful.shutdown(this).get(stopTimeout, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                int open = 0;
+                for (Connector connector : _connectors)
+                {
+                    open += connector.getConnectedEndPoints().size();
+                }
+                LOG.warn("Graceful shutdown timed out after {} ms, closing {} connections", stopTimeout, open);
+            }
+            catch (InterruptedException e)
+            {
+                LOG.warn("Graceful shutdown interrupted");
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e)
+            {
+                LOG.warn("Graceful shutdown failed", e.getCause());
+            }
+
+            // Give the threads still handling requests the remaining time to finish.
+            if (_threadPool instanceof QueuedThreadPool qtp)
+            {
+                threadPoolStopTimeout = qtp.getStopTimeout();
+                qtp.setStopTimeout(Math.max(1000L, NanoTime.millisUntil(end)));
+            }
+        }
+
         // Now stop the connectors (this will close existing connections)
         for (Connector connector : _connectors) {
                 connector.stop();
         }
 
+        Scheduler.Task dateTask = _dateTask;
+        _dateTask = null;
+        if (dateTask != null)
+            dateTask.cancel();
+
         // And finally stop everything else
-        super.doStop();
+        try
+        {
+            super.doStop();
+        }
+        finally
+        {
+            // Restore the configured stop timeout, in case the server is restarted.
+            if (threadPoolStopTimeout >= 0 && _threadPool instanceof QueuedThreadPool qtp)
+                qtp.setStopTimeout(threadPoolStopTimeout);
+        }
         ShutdownThread.deregister(this);
     }
 
+    /**
+     * @return the time in milliseconds to wait for in-flight requests to complete when stopping
+     */
+    @ManagedAttribute("The time in ms to wait for in-flight requests to complete when stopping")
+    public long getStopTimeout()
+    {
+        return _stopTimeout;
+    }
+
+    /**
+     * <p>Sets the time to wait for in-flight requests to complete when stopping.</p>
+     * <p>When positive, stopping the server first stops accepting connections, closes
+     * the idle ones, and adds {@code Connection: close} to the in-flight responses;
+     * the remaining connections are closed when they complete or when this time expires.
+     * When zero, stopping the server immediately closes all the connections.</p>
+     *
+     * @param stopTimeout the time in milliseconds to wait for in-flight requests to complete when stopping
+     */
+    public void setStopTimeout(long stopTimeout)
+    {
+        _stopTimeout = stopTimeout;
+    }
+
     @Override
     public Object setAttribute(String name, Object attribute)
     {
@@ -36,6 +36,7 @@ import ab.squirrel.io.EndPoint;
 import ab.squirrel.io.ManagedSelector;
 import ab.squirrel.io.SelectorManager;
 import ab.squirrel.io.SocketChannelEndPoint;
+import ab.squirrel.io.WriteCoalescer;
 
 import ab.squirrel.server.internal.HttpConnection;
 
@@ -59,6 +60,7 @@ public class ServerConnector extends AbstractConnector
     private volatile int _acceptedReceiveBufferSize = -1;
     private volatile int _acceptedSendBufferSize = -1;
     private int _inputBufferSize = 8192;
+    private WriteCoalescer _writeCoalescer;
 
     public ServerConnector(
         @Name("server") Server server)
@@ -66,6 +68,8 @@ public class ServerConnector extends AbstractConnector
         super(server);
         _manager = new ServerConnectorManager(getExecutor(), getScheduler());
         installBean(_manager, true);
+        _writeCoalescer = new WriteCoalescer(getByteBufferPool());
+        installBean(_writeCoalescer);
         setAcceptorPriorityDelta(-2);
     }
 
@@ -211,9 +215,30 @@ public class ServerConnector extends AbstractConnector
     {
         SocketChannelEndPoint endpoint = new SocketChannelEndPoint(channel, selectSet, key, getScheduler());
         endpoint.setIdleTimeout(getIdleTimeout());
+        endpoint.setWriteCoalescer(_writeCoalescer);
         return endpoint;
     }
 
+    /**
+     * @return the coalescer of the small buffers written to the endpoints, or null
+     */
+    @ManagedAttribute("The coalescer of the small buffers written to the endpoints")
+    public WriteCoalescer getWriteCoalescer()
+    {
+        return _writeCoalescer;
+    }
+
+    /**
+     * @param writeCoalescer the coalescer of the small buffers written to the endpoints, or null to not coalesce them
+     */
+    public void setWriteCoalescer(WriteCoalescer writeCoalescer)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        updateBean(_writeCoalescer, writeCoalescer);
+        _writeCoalescer = writeCoalescer;
+    }
+
     /**
      * @return the accept queue size
      */
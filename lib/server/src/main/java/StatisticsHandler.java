@@ -0,0 +1,393 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.server;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import ab.squirrel.http.HttpHeader;
+import ab.squirrel.http.HttpMethod;
+import ab.squirrel.http.HttpStatus;
+import ab.squirrel.io.Connection;
+import ab.squirrel.io.Content;
+import ab.squirrel.util.Callback;
+import ab.squirrel.util.NanoTime;
+import ab.squirrel.util.annotation.ManagedAttribute;
+import ab.squirrel.util.annotation.ManagedObject;
+import ab.squirrel.util.annotation.ManagedOperation;
+import ab.squirrel.util.statistic.CounterStatistic;
+import ab.squirrel.util.statistic.HistogramStatistic;
+
+/**
+ * <p>A {@link Handler} that collects request and connection statistics for a {@link Server}.</p>
+ * <p>This handler must be the first one added to the {@link Server}: it records the
+ * start of every request, registers a completion listener that records the latency and
+ * the response status, and then returns {@code false} so that the next handlers
+ * handle the request.</p>
+ * <p>Connection statistics (durations, messages and bytes in/out) are collected by a
+ * {@link Connection.Listener} that is registered on the {@link Server} connectors
+ * when this handler is started.</p>
+ * <p>All statistics are exported as {@link ManagedAttribute}s, and as plain text
+ * on a {@code GET} of the {@link #getMetricsPath() metrics path}.</p>
+ */
+@ManagedObject("Request and connection statistics")
+public class StatisticsHandler extends Handler.Abstract
+{
+    private final Server _server;
+    private final Connection.Listener _connectionListener = new ConnectionStatistics();
+    private final CounterStatistic _requestStats = new CounterStatistic();
+    private final HistogramStatistic _requestTimeStats = new HistogramStatistic();
+    private final LongAdder _failures = new LongAdder();
+    private final LongAdder[] _responses = new LongAdder[6];
+    private final CounterStatistic _connectionStats = new CounterStatistic();
+    private final HistogramStatistic _connectionTimeStats = new HistogramStatistic();
+    private final LongAdder _messagesIn = new LongAdder();
+    private final LongAdder _messagesOut = new LongAdder();
+    private final LongAdder _bytesIn = new LongAdder();
+    private final LongAdder _bytesOut = new LongAdder();
+    private volatile long _statsStartedNanoTime = NanoTime.now();
+    private String _metricsPath = "/metrics";
+
+    public StatisticsHandler(Server server)
+    {
+        _server = Objects.requireNonNull(server);
+        for (int i = 0; i < _responses.length; i++)
+        {
+            _responses[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public boolean handle(Request request, Response response, Callback callback) throws Exception
+    {
+        if (_metricsPath != null && HttpMethod.GET.is(request.getMethod()) && _metricsPath.equals(Request.getPathInContext(request)))
+        {
+            response.setStatus(HttpStatus.OK_200);
+            response.getHeaders().put(HttpHeader.CONTENT_TYPE, "text/plain; charset=utf-8");
+            Content.Sink.write(response, true, toMetrics(), callback);
+            return true;
+        }
+
+        _requestStats.increment();
+        Request.addCompletionListener(request, failure ->
+        {
+            _requestTimeStats.record(NanoTime.since(request.getBeginNanoTime()));
+            _requestStats.decrement();
+            if (failure != null)
+                _failures.increment();
+            int status = response.getStatus();
+            _responses[status >= 100 && status < 600 ? status / 100 : 0].increment();
+        });
+        return false;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        statsReset();
+        for (Connector connector : _server.getConnectors())
+        {
+            connector.addEventListener(_connectionListener);
+        }
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        for (Connector connector : _server.getConnectors())
+        {
+            connector.removeEventListener(_connectionListener);
+        }
+    }
+
+    /**
+     * @return the path at which the statistics are exported as text, or null if they are not exported
+     */
+    @ManagedAttribute("The path at which the statistics are exported as text")
+    public String getMetricsPath()
+    {
+        return _metricsPath;
+    }
+
+    /**
+     * @param metricsPath the path at which the statistics are exported as text, or null to not export them
+     */
+    public void setMetricsPath(String metricsPath)
+    {
+        _metricsPath = metricsPath;
+    }
+
+    @ManagedOperation(value = "resets the statistics", impact = "ACTION")
+    public void statsReset()
+    {
+        _statsStartedNanoTime = NanoTime.now();
+        _requestStats.reset();
+        _requestTimeStats.reset();
+        _failures.reset();
+        for (LongAdder responses : _responses)
+        {
+            responses.reset();
+        }
+        _connectionStats.reset();
+        _connectionTimeStats.reset();
+        _messagesIn.reset();
+        _messagesOut.reset();
+        _bytesIn.reset();
+        _bytesOut.reset();
+    }
+
+    @ManagedAttribute("time in milliseconds stats have been collected for")
+    public long getStatsOnMs()
+    {
+        return NanoTime.millisSince(_statsStartedNanoTime);
+    }
+
+    @ManagedAttribute("number of requests")
+    public int getRequests()
+    {
+        return (int)_requestStats.getTotal();
+    }
+
+    @ManagedAttribute("number of requests currently active")
+    public int getRequestsActive()
+    {
+        return (int)_requestStats.getCurrent();
+    }
+
+    @ManagedAttribute("maximum number of active requests")
+    public int getRequestsActiveMax()
+    {
+        return (int)_requestStats.getMax();
+    }
+
+    @ManagedAttribute("number of requests that completed with a failure")
+    public int getFailures()
+    {
+        return _failures.intValue();
+    }
+
+    @ManagedAttribute("number of requests with 1xx response status")
+    public int getResponses1xx()
+    {
+        return _responses[1].intValue();
+    }
+
+    @ManagedAttribute("number of requests with 2xx response status")
+    public int getResponses2xx()
+    {
+        return _responses[2].intValue();
+    }
+
+    @ManagedAttribute("number of requests with 3xx response status")
+    public int getResponses3xx()
+    {
+        return _responses[3].intValue();
+    }
+
+    @ManagedAttribute("number of requests with 4xx response status")
+    public int getResponses4xx()
+    {
+        return _responses[4].intValue();
+    }
+
+    @ManagedAttribute("number of requests with 5xx response status")
+    public int getResponses5xx()
+    {
+        return _responses[5].intValue();
+    }
+
+    @ManagedAttribute("maximum time spent handling requests (in ns)")
+    public long getRequestTimeMax()
+    {
+        return _requestTimeStats.getMax();
+    }
+
+    @ManagedAttribute("total time spent handling requests (in ns)")
+    public long getRequestTimeTotal()
+    {
+        return _requestTimeStats.getTotal();
+    }
+
+    @ManagedAttribute("mean time spent handling requests (in ns)")
+    public double getRequestTimeMean()
+    {
+        return _requestTimeStats.getMean();
+    }
+
+    @ManagedAttribute("median time spent handling requests (in ns)")
+    public long getRequestTimeP50()
+    {
+        return _requestTimeStats.getPercentile(50);
+    }
+
+    @ManagedAttribute("99th percentile of the time spent handling requests (in ns)")
+    public long getRequestTimeP99()
+    {
+        return _requestTimeStats.getPercentile(99);
+    }
+
+    /**
+     * @return the histogram of the time spent handling requests, in nanoseconds
+     */
+    public HistogramStatistic getRequestTimeHistogram()
+    {
+        return _requestTimeStats;
+    }
+
+    @ManagedAttribute("number of connections")
+    public long getConnections()
+    {
+        return _connectionStats.getTotal();
+    }
+
+    @ManagedAttribute("number of connections currently open")
+    public long getConnectionsOpen()
+    {
+        return _connectionStats.getCurrent();
+    }
+
+    @ManagedAttribute("maximum number of open connections")
+    public long getConnectionsOpenMax()
+    {
+        return _connectionStats.getMax();
+    }
+
+    @ManagedAttribute("maximum duration of a connection (in ms)")
+    public long getConnectionDurationMax()
+    {
+        return _connectionTimeStats.getMax();
+    }
+
+    @ManagedAttribute("mean duration of a connection (in ms)")
+    public double getConnectionDurationMean()
+    {
+        return _connectionTimeStats.getMean();
+    }
+
+    /**
+     * @return the histogram of the connection durations, in milliseconds
+     */
+    public HistogramStatistic getConnectionDurationHistogram()
+    {
+        return _connectionTimeStats;
+    }
+
+    @ManagedAttribute("number of messages received by closed connections")
+    public long getMessagesIn()
+    {
+        return _messagesIn.sum();
+    }
+
+    @ManagedAttribute("number of messages sent by closed connections")
+    public long getMessagesOut()
+    {
+        return _messagesOut.sum();
+    }
+
+    @ManagedAttribute("number of bytes received by closed connections")
+    public long getBytesIn()
+    {
+        return _bytesIn.sum();
+    }
+
+    @ManagedAttribute("number of bytes sent by closed connections")
+    public long getBytesOut()
+    {
+        return _bytesOut.sum();
+    }
+
+    /**
+     * @return the statistics as lines of {@code name value} text
+     */
+    public String toMetrics()
+    {
+        StringBuilder builder = new StringBuilder(1024);
+        append(builder, "stats_on_ms", getStatsOnMs());
+        append(builder, "requests", getRequests());
+        append(builder, "requests_active", getRequestsActive());
+        append(builder, "requests_active_max", getRequestsActiveMax());
+        append(builder, "requests_failed", getFailures());
+        append(builder, "responses_1xx", getResponses1xx());
+        append(builder, "responses_2xx", getResponses2xx());
+        append(builder, "responses_3xx", getResponses3xx());
+        append(builder, "responses_4xx", getResponses4xx());
+        append(builder, "responses_5xx", getResponses5xx());
+        appendHistogram(builder, "request_time_ns", _requestTimeStats);
+        append(builder, "connections", getConnections());
+        append(builder, "connections_open", getConnectionsOpen());
+        append(builder, "connections_open_max", getConnectionsOpenMax());
+        appendHistogram(builder, "connection_duration_ms", _connectionTimeStats);
+        append(builder, "messages_in", getMessagesIn());
+        append(builder, "messages_out", getMessagesOut());
+        append(builder, "bytes_in", getBytesIn());
+        append(builder, "bytes_out", getBytesOut());
+        return builder.toString();
+    }
+
+    private static void append(StringBuilder builder, String name, long value)
+    {
+        builder.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendHistogram(StringBuilder builder, String name, HistogramStatistic histogram)
+    {
+        // Prometheus buckets are cumulative with an inclusive "le" bound, while the
+        // bounds of the histogram are exclusive, and samples are integers.
+        long cumulated = 0;
+        for (int i = 0; i < histogram.getBuckets(); i++)
+        {
+            long count = histogram.getBucketCount(i);
+            cumulated += count;
+            long bound = histogram.getBucketUpperBound(i);
+            boolean last = bound == Long.MAX_VALUE;
+            if (count == 0 && !last)
+                continue;
+            builder.append(name).append("_bucket{le=\"").append(last ? "+Inf" : Long.toString(bound - 1)).append("\"} ").append(cumulated).append('\n');
+        }
+        append(builder, name + "_count", histogram.getCount());
+        append(builder, name + "_sum", histogram.getTotal());
+        append(builder, name + "_max", histogram.getMax());
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,r=%d,c=%d}", getClass().getSimpleName(), hashCode(), getState(), _requestStats.getCurrent(), _connectionStats.getCurrent());
+    }
+
+    private class ConnectionStatistics implements Connection.Listener
+    {
+        @Override
+        public void onOpened(Connection connection)
+        {
+            if (isStarted())
+                _connectionStats.increment();
+        }
+
+        @Override
+        public void onClosed(Connection connection)
+        {
+            if (!isStarted())
+                return;
+            _connectionStats.decrement();
+            _connectionTimeStats.record(System.currentTimeMillis() - connection.getCreatedTimeStamp());
+            _messagesIn.add(connection.getMessagesIn());
+            _messagesOut.add(connection.getMessagesOut());
+            _bytesIn.add(connection.getBytesIn());
+            _bytesOut.add(connection.getBytesOut());
+        }
+    }
+}
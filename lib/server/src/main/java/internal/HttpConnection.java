@@ -346,6 +346,14 @@ public class HttpConnection extends AbstractConnection implements Runnable, Conn
         return _retainableByteBuffer == null || !_retainableByteBuffer.hasRemaining();
     }
 
+    /**
+     * @return true if there is no request in progress and no buffered bytes of a next request
+     */
+    public boolean isIdle()
+    {
+        return _stream.get() == null && isRequestBufferEmpty();
+    }
+
     @Override
     public void onFillable()
     {
@@ -560,6 +568,10 @@ public class HttpConnection extends AbstractConnection implements Runnable, Conn
     {
         if (_httpChannel.getRequest() == null)
             return true;
+        // When shutting down, the response closes the connection, and
+        // the request is given until the stop timeout of the server.
+        if (getConnector().isShutdown())
+            return false;
         Runnable task = _httpChannel.onIdleTimeout(timeout);
         if (task != null)
             getExecutor().execute(task);
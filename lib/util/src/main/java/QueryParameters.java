@@ -0,0 +1,225 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>A view of the parameters of an UTF-8 {@code x-www-form-urlencoded} query string.</p>
+ * <p>Unlike {@link UrlEncoded#decodeUtf8To(String, Fields)}, which decodes all the
+ * parameters up front, this view finds a parameter by scanning the raw query for its
+ * name, and only decodes the value of the parameters that are asked for.
+ * This is cheaper when only a few parameters are read from a long query string.</p>
+ * <p>Names and values are decoded like {@link UrlEncoded#decodeUtf8To(String, Fields)} does,
+ * and names are case sensitive.
+ * Values without percent encoding nor {@code '+'} are substrings of the query, the others
+ * are decoded with a scratch buffer that is reused by this view.
+ * A malformed percent encoding or UTF-8 sequence is only detected when the name or value
+ * that contains it is decoded, and then causes an {@link IllegalArgumentException}.</p>
+ * <p>The implementation of this class is not thread safe.</p>
+ */
+public class QueryParameters
+{
+    private final String _query;
+    private final int _offset;
+    private final int _end;
+    private Utf8StringBuilder _buffer;
+
+    /**
+     * @param query the query string, or null for no parameters
+     */
+    public QueryParameters(String query)
+    {
+        this(query, 0, query == null ? 0 : query.length());
+    }
+
+    /**
+     * @param query the string containing the query
+     * @param offset the offset of the query within the string
+     * @param length the length of the query
+     */
+    public QueryParameters(String query, int offset, int length)
+    {
+        _query = query;
+        _offset = offset;
+        _end = offset + length;
+    }
+
+    /**
+     * @param name the parameter name
+     * @return whether the query has a parameter with the given name
+     */
+    public boolean contains(String name)
+    {
+        return indexOf(name, _offset) >= 0;
+    }
+
+    /**
+     * @param name the parameter name
+     * @return the decoded value of the first parameter with the given name,
+     * the empty string if the parameter has no value, or null if there is no such parameter
+     */
+    public String getValue(String name)
+    {
+        int index = indexOf(name, _offset);
+        return index < 0 ? null : value(index);
+    }
+
+    /**
+     * @param name the parameter name
+     * @return the decoded values of the parameters with the given name, possibly empty
+     */
+    public List<String> getValues(String name)
+    {
+        int index = indexOf(name, _offset);
+        if (index < 0)
+            return Collections.emptyList();
+        List<String> values = new ArrayList<>(2);
+        while (index >= 0)
+        {
+            values.add(value(index));
+            index = indexOf(name, next(index));
+        }
+        return values;
+    }
+
+    /**
+     * <p>Decodes all the parameters, in order.</p>
+     *
+     * @param consumer the consumer of the decoded names and values
+     */
+    public void forEach(BiConsumer<String, String> consumer)
+    {
+        int start = _offset;
+        while (start < _end)
+        {
+            int end = end(start);
+            int equals = equals(start, end);
+            if (equals < end)
+                consumer.accept(decode(start, equals), decode(equals + 1, end));
+            else if (end > start)
+                consumer.accept(decode(start, end), "");
+            start = end + 1;
+        }
+    }
+
+    /**
+     * @return the parameters decoded into a new case sensitive {@link Fields}
+     */
+    public Fields toFields()
+    {
+        Fields fields = new Fields(true);
+        forEach(fields::add);
+        return fields;
+    }
+
+    /**
+     * @param name the parameter name
+     * @param from the start of the parameter to search from
+     * @return the start of the first parameter with the given name, or -1
+     */
+    private int indexOf(String name, int from)
+    {
+        int length = name.length();
+        int start = from;
+        while (start < _end)
+        {
+            int end = end(start);
+            int equals = equals(start, end);
+            // An empty parameter is ignored, but an empty name with a value is not.
+            if (end > start)
+            {
+                if (equals - start == length && _query.regionMatches(start, name, 0, length))
+                    return start;
+                if (isEncoded(start, equals) && name.equals(decode(start, equals)))
+                    return start;
+            }
+            start = end + 1;
+        }
+        return -1;
+    }
+
+    private int next(int start)
+    {
+        return end(start) + 1;
+    }
+
+    private int end(int start)
+    {
+        int end = _query.indexOf('&', start, _end);
+        return end < 0 ? _end : end;
+    }
+
+    private int equals(int start, int end)
+    {
+        int equals = _query.indexOf('=', start, end);
+        return equals < 0 ? end : equals;
+    }
+
+    private String value(int start)
+    {
+        int end = end(start);
+        int equals = equals(start, end);
+        return equals == end ? "" : decode(equals + 1, end);
+    }
+
+    private boolean isEncoded(int start, int end)
+    {
+        for (int i = start; i < end; i++)
+        {
+            char c = _query.charAt(i);
+            if (c == '%' || c == '+')
+                return true;
+        }
+        return false;
+    }
+
+    private String decode(int start, int end)
+    {
+        if (!isEncoded(start, end))
+            return _query.substring(start, end);
+
+        Utf8StringBuilder buffer = _buffer;
+        if (buffer == null)
+            _buffer = buffer = new Utf8StringBuilder(end - start);
+        buffer.reset();
+        for (int i = start; i < end; i++)
+        {
+            char c = _query.charAt(i);
+            switch (c)
+            {
+                case '+' -> buffer.append((byte)' ');
+                case '%' ->
+                {
+                    if (i + 2 >= end)
+                        throw new Utf8StringBuilder.Utf8IllegalArgumentException();
+                    char hi = _query.charAt(++i);
+                    char lo = _query.charAt(++i);
+                    buffer.append(UrlEncoded.decodeHexByte(hi, lo));
+                }
+                default -> buffer.append(c);
+            }
+        }
+        return buffer.takeCompleteString(Utf8StringBuilder.Utf8IllegalArgumentException::new);
+    }
+
+    @Override
+    public String toString()
+    {
+        return _query == null ? "" : _query.substring(_offset, _end);
+    }
+}
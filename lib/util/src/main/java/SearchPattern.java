@@ -14,6 +14,7 @@
 package ab.squirrel.util;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
@@ -30,6 +31,8 @@ import java.util.Arrays;
 public class SearchPattern
 {
     private static final int ALPHABET_SIZE = 256;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
     private final int[] table = new int[ALPHABET_SIZE];
     private final byte[] pattern;
 
@@ -123,18 +126,27 @@ public class SearchPattern
      */
     public int match(ByteBuffer buffer)
     {
+        int position = buffer.position();
         int remaining = buffer.remaining();
+        if (buffer.hasArray())
+        {
+            int offset = buffer.arrayOffset() + position;
+            int index = match(buffer.array(), offset, remaining);
+            return index < 0 ? -1 : index - offset;
+        }
+
+        int last = pattern.length - 1;
         int cursor = 0;
-        while (remaining - cursor >= getLength())
+        while (remaining - cursor > last)
         {
-            int i = getLength() - 1;
-            while (buffer.get(buffer.position() + cursor + i) == pattern[i])
+            int i = last;
+            while (buffer.get(position + cursor + i) == pattern[i])
             {
                 if (i == 0)
                     return cursor;
                 --i;
             }
-            cursor += table[buffer.get(buffer.position() + cursor + getLength() - 1) & 0xFF];
+            cursor += table[buffer.get(position + cursor + last) & 0xFF];
         }
         return -1;
     }
@@ -184,6 +196,11 @@ public class SearchPattern
         int cursor = getLength() <= buffer.remaining() ? limit - getLength() : buffer.position();
         while (cursor < limit)
         {
+            // Cannot use the pre-processed table as we are not matching on the full pattern,
+            // but a partial match must start with the first byte of the pattern.
+            cursor = indexOf(buffer, cursor, limit, pattern[0]);
+            if (cursor == limit)
+                break;
             int i = limit - 1 - cursor;
             while (buffer.get(cursor + i) == pattern[i])
             {
@@ -191,12 +208,47 @@ public class SearchPattern
                     return limit - cursor;
                 --i;
             }
-            // Cannot use the pre-processed table as we are not matching on the full pattern.
             ++cursor;
         }
         return 0;
     }
 
+    /**
+     * <p>Finds a byte in a {@code ByteBuffer}, examining 8 bytes at a time
+     * with SWAR (SIMD within a register) arithmetic on {@code long} words.</p>
+     *
+     * @param buffer the buffer to search into
+     * @param index the index of the first byte to examine
+     * @param limit the index after the last byte to examine
+     * @param b the byte to find
+     * @return the index of the first byte equal to {@code b}, or {@code limit} if there is none
+     */
+    private static int indexOf(ByteBuffer buffer, int index, int limit, byte b)
+    {
+        long bs = (0xFF & b) * ONES;
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        while (limit - index >= Long.BYTES)
+        {
+            // Read the bytes so that the first one is the least significant: the borrows
+            // only propagate to the following bytes, so the lowest high bit set is exact.
+            long word = buffer.getLong(index);
+            if (bigEndian)
+                word = Long.reverseBytes(word);
+            word ^= bs;
+            long found = (word - ONES) & ~word & HIGH_BITS;
+            if (found != 0)
+                return index + (Long.numberOfTrailingZeros(found) >>> 3);
+            index += Long.BYTES;
+        }
+        while (index < limit)
+        {
+            if (buffer.get(index) == b)
+                return index;
+            index++;
+        }
+        return limit;
+    }
+
     /**
      * Search for a possibly partial match of the pattern at the start of the data.
      *
@@ -0,0 +1,192 @@
+//
+// ========================================================================
+// Copyright (c) 1995 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under the
+// terms of the Eclipse Public License v. 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0, or the Apache License, Version 2.0
+// which is available at https://www.apache.org/licenses/LICENSE-2.0.
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package ab.squirrel.util.statistic;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Statistics on a sampled value, recorded in a histogram.</p>
+ * <p>Samples are counted in buckets whose upper bounds are powers of two:
+ * bucket {@code 0} counts the samples equal to {@code 0}, and bucket {@code i}
+ * counts the samples in the range {@code [2^(i-1), 2^i)}; the last bucket also
+ * counts all the samples larger than its lower bound.</p>
+ * <p>Each bucket is a {@link LongAdder}, so that concurrent recording threads
+ * do not contend on a single counter.</p>
+ */
+public class HistogramStatistic
+{
+    private final LongAdder[] _buckets;
+    private final LongAccumulator _max = new LongAccumulator(Math::max, 0L);
+    private final LongAdder _total = new LongAdder();
+    private final LongAdder _count = new LongAdder();
+
+    /**
+     * Creates a histogram with 32 buckets, whose last finite bound is
+     * {@code 2^30}, so about 1.07 seconds when recorded in nanoseconds.
+     */
+    public HistogramStatistic()
+    {
+        this(32);
+    }
+
+    /**
+     * @param buckets the number of buckets, between 2 and 64
+     */
+    public HistogramStatistic(int buckets)
+    {
+        if (buckets < 2 || buckets > 64)
+            throw new IllegalArgumentException("Invalid number of buckets " + buckets);
+        _buckets = new LongAdder[buckets];
+        for (int i = 0; i < buckets; i++)
+        {
+            _buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Resets the statistics.
+     */
+    public void reset()
+    {
+        for (LongAdder bucket : _buckets)
+        {
+            bucket.reset();
+        }
+        _max.reset();
+        _total.reset();
+        _count.reset();
+    }
+
+    /**
+     * Records a sample value.
+     *
+     * @param sample the value to record, negative values are recorded as zero.
+     */
+    public void record(long sample)
+    {
+        if (sample < 0)
+            sample = 0;
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(sample), _buckets.length - 1);
+        _buckets[bucket].increment();
+        _total.add(sample);
+        _count.increment();
+        _max.accumulate(sample);
+    }
+
+    /**
+     * Get the number of buckets.
+     * @return the number of buckets
+     */
+    public int getBuckets()
+    {
+        return _buckets.length;
+    }
+
+    /**
+     * Get the exclusive upper bound of a bucket.
+     * @param bucket the bucket index
+     * @return the exclusive upper bound of the bucket, or {@link Long#MAX_VALUE} for the last bucket
+     */
+    public long getBucketUpperBound(int bucket)
+    {
+        if (bucket == _buckets.length - 1)
+            return Long.MAX_VALUE;
+        return 1L << bucket;
+    }
+
+    /**
+     * Get the number of samples recorded in a bucket.
+     * @param bucket the bucket index
+     * @return the number of samples recorded in the bucket
+     */
+    public long getBucketCount(int bucket)
+    {
+        return _buckets[bucket].sum();
+    }
+
+    /**
+     * Get the max value of the recorded samples.
+     * @return the max value of the recorded samples
+     */
+    public long getMax()
+    {
+        return _max.get();
+    }
+
+    /**
+     * Get the sum of all the recorded samples.
+     * @return the sum of all the recorded samples
+     */
+    public long getTotal()
+    {
+        return _total.sum();
+    }
+
+    /**
+     * Get the number of samples recorded.
+     * @return the number of samples recorded
+     */
+    public long getCount()
+    {
+        return _count.sum();
+    }
+
+    /**
+     * Get the average value of the samples recorded, or zero if there are no samples.
+     * @return the average value of the samples recorded, or zero if there are no samples
+     */
+    public double getMean()
+    {
+        long count = getCount();
+        return count > 0 ? (double)getTotal() / count : 0.0D;
+    }
+
+    /**
+     * <p>Get an estimate of a percentile of the recorded samples.</p>
+     * <p>The estimate is the upper bound of the bucket that contains the percentile,
+     * capped to the max recorded value, so it is never lower than the real value.</p>
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return an estimate of the percentile, or zero if there are no samples
+     */
+    public long getPercentile(double percentile)
+    {
+        long count = 0;
+        long[] counts = new long[_buckets.length];
+        for (int i = 0; i < counts.length; i++)
+        {
+            counts[i] = _buckets[i].sum();
+            count += counts[i];
+        }
+        if (count == 0)
+            return 0;
+
+        long rank = (long)Math.ceil(count * Math.max(0.0D, Math.min(100.0D, percentile)) / 100.0D);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0)
+                return Math.min(getBucketUpperBound(i), getMax());
+        }
+        return getMax();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{count=%d,max=%d,mean=%f,total=%d,p50=%d,p99=%d}", getClass().getSimpleName(), hashCode(), getCount(), getMax(), getMean(), getTotal(), getPercentile(50), getPercentile(99));
+    }
+}
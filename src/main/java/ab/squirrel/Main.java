@@ -1,6 +1,9 @@
 package ab.squirrel;
 
+import ab.squirrel.server.OverloadHandler;
+import ab.squirrel.server.PrometheusHandler;
 import ab.squirrel.server.Server;
+import ab.squirrel.server.StatisticsHandler;
 import ab.squirrel.ApiHandler;
 import ab.squirrel.ResourceHandler;
 
@@ -22,6 +25,9 @@ public class Main {
         /* 
          * Handlers
          */
+        server.addHandler(new StatisticsHandler(server));
+        server.addHandler(new PrometheusHandler(server));
+        server.addHandler(new OverloadHandler(server));
         server.addHandler(new ApiHandler());
         server.addHandler(new ResourceHandler(rootDir, server));
 
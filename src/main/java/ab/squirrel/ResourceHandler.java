@@ -42,6 +42,7 @@ import ab.squirrel.http.MultiPartByteRanges;
 import ab.squirrel.http.PreEncodedHttpField;
 import ab.squirrel.http.QuotedCSV;
 import ab.squirrel.http.QuotedQualityCSV;
+import ab.squirrel.http.ResponseTemplate;
 //import ab.squirrel.http.ResourceHttpContentFactory;
 
 import ab.squirrel.io.ArrayByteBufferPool;
@@ -74,9 +75,12 @@ public class ResourceHandler extends ab.squirrel.server.Handler.Abstract
 
     private static final int NO_CONTENT_LENGTH = -1;
     private static final int USE_KNOWN_CONTENT_LENGTH = -2;
+    private static final int MAX_TEMPLATES = 256;
+    private static final HttpField ACCEPT_RANGES_BYTES = new PreEncodedHttpField(HttpHeader.ACCEPT_RANGES, "bytes");
 
     private final Map<String, List<String>> _preferredEncodingOrderCache = new ConcurrentHashMap<>();
     private final List<String> _preferredEncodingOrder = new ArrayList<>();
+    private final Map<String, ResponseTemplate> _templates = new ConcurrentHashMap<>();
 
     private String _rootDir = "./";
     private boolean _etags = false;
@@ -193,6 +197,7 @@ public class ResourceHandler extends ab.squirrel.server.Handler.Abstract
     public void setCacheControl(String cacheControl)
     {
         _cacheControl = new PreEncodedHttpField(HttpHeader.CACHE_CONTROL, cacheControl);
+        _templates.clear();
     }
 
     /**
@@ -231,6 +236,7 @@ public class ResourceHandler extends ab.squirrel.server.Handler.Abstract
     public void setAcceptRanges(boolean acceptRanges)
     {
         _acceptRanges = acceptRanges;
+        _templates.clear();
     }
 
     /**
@@ -628,10 +634,6 @@ public class ResourceHandler extends ab.squirrel.server.Handler.Abstract
             response.getHeaders().put(HttpHeader.CONTENT_LENGTH, contentLength);
         }
 
-        HttpField ct = content.getContentType();
-        if (ct != null)
-            response.getHeaders().put(ct);
-
         HttpField ce = content.getContentEncoding();
         if (ce != null)
             response.getHeaders().put(ce);
@@ -643,10 +645,53 @@ public class ResourceHandler extends ab.squirrel.server.Handler.Abstract
                 response.getHeaders().put(et);
         }
 
+        HttpField ct = content.getContentType();
+        ResponseTemplate template = getResponseTemplate(response, ct);
+        if (template != null)
+        {
+            template.putTo(response.getHeaders());
+            return;
+        }
+
+        if (ct != null)
+            response.getHeaders().put(ct);
         if (_acceptRanges && !response.getHeaders().contains(HttpHeader.ACCEPT_RANGES))
-            response.getHeaders().put(new PreEncodedHttpField(HttpHeader.ACCEPT_RANGES, "bytes"));
+            response.getHeaders().put(ACCEPT_RANGES_BYTES);
         if (_cacheControl != null && !response.getHeaders().contains(HttpHeader.CACHE_CONTROL))
             response.getHeaders().put(_cacheControl);
     }
 
+    /**
+     * <p>Get the template of the constant fields of a 200 response for a content type.</p>
+     * <p>The template has the {@code Content-Type}, {@code Accept-Ranges} and {@code Cache-Control}
+     * fields, so that the generator can write them with the status line in a single put.</p>
+     *
+     * @param response the response
+     * @param contentType the content type field, or null
+     * @return the template, or null if a template cannot be used for the response
+     */
+    protected ResponseTemplate getResponseTemplate(Response response, HttpField contentType)
+    {
+        if (contentType == null ||
+            response.getHeaders().contains(HttpHeader.ACCEPT_RANGES) ||
+            response.getHeaders().contains(HttpHeader.CACHE_CONTROL))
+            return null;
+
+        ResponseTemplate template = _templates.get(contentType.getValue());
+        if (template == null && _templates.size() < MAX_TEMPLATES)
+        {
+            List<HttpField> fields = new ArrayList<>(3);
+            fields.add(contentType);
+            if (_acceptRanges)
+                fields.add(ACCEPT_RANGES_BYTES);
+            if (_cacheControl != null)
+                fields.add(_cacheControl);
+            template = new ResponseTemplate(HttpStatus.OK_200, fields.toArray(new HttpField[0]));
+            ResponseTemplate existing = _templates.putIfAbsent(contentType.getValue(), template);
+            if (existing != null)
+                template = existing;
+        }
+        return template;
+    }
+
 }